@@ -0,0 +1,122 @@
+package ru.ifmo.rain.kurilenko.arrayset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * JMH lookup throughput of the plain sorted list of ArraySet<Integer>, the sorted int[] of
+ * IntArraySet and IntArraySet with the Eytzinger search index, for sets from cache-resident
+ * to tens of millions of elements. Keys are random, half of them present, and boxed up
+ * front for ArraySet so the loop measures the search alone. Scores are lookups per
+ * microsecond. Run with
+ *   java -cp ... org.openjdk.jmh.Main ArraySetBenchmark [-p size=n]
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class ArraySetBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Sets {
+        @Param({"1024", "65536", "1048576", "16777216"})
+        public int size;
+
+        int[] keys;
+        Integer[] boxed;
+        ArraySet<Integer> list;
+        IntArraySet sorted;
+        IntArraySet indexed;
+
+        @Setup
+        public void setup() {
+            List<Integer> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                elements.add(2 * i);
+            }
+            Random random = new Random(0);
+            keys = new int[LOOKUPS];
+            boxed = new Integer[LOOKUPS];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextInt(2 * size);
+                boxed[i] = keys[i];
+            }
+            list = new ArraySet<>(elements);
+            sorted = new IntArraySet(list);
+            indexed = sorted.indexed();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsArraySet(Sets sets, Blackhole blackhole) {
+        for (Integer key : sets.boxed) {
+            blackhole.consume(sets.list.contains(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsIntArraySet(Sets sets, Blackhole blackhole) {
+        contains(sets.sorted, sets.keys, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsEytzinger(Sets sets, Blackhole blackhole) {
+        contains(sets.indexed, sets.keys, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void floorArraySet(Sets sets, Blackhole blackhole) {
+        for (Integer key : sets.boxed) {
+            blackhole.consume(sets.list.floor(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void floorIntArraySet(Sets sets, Blackhole blackhole) {
+        floor(sets.sorted, sets.keys, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void floorEytzinger(Sets sets, Blackhole blackhole) {
+        floor(sets.indexed, sets.keys, blackhole);
+    }
+
+    private static void contains(IntArraySet set, int[] keys, Blackhole blackhole) {
+        for (int key : keys) {
+            blackhole.consume(set.contains(key));
+        }
+    }
+
+    /*
+     * Every key is at least the first element, so there is always a floor.
+     */
+    private static void floor(IntArraySet set, int[] keys, Blackhole blackhole) {
+        for (int key : keys) {
+            blackhole.consume(set.floor(key));
+        }
+    }
+}
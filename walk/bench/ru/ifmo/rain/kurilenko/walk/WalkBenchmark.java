@@ -0,0 +1,281 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * JMH throughput benchmarks for the hashing hot path:
+ *   - the FNV inner loop over byte[], and every built-in function over heap and direct buffers;
+ *   - read strategies for one file: the original 1 KB InputStream loop, FileChannel with heap
+ *     and direct buffers of several sizes, a full mmap and the adaptive FileHasher;
+ *   - Walker over small, medium and large file sets and a directory tree, with one thread
+ *     and with all cores.
+ * Every operation hashes one buffer, one file or one whole set, so MB/s is ops/s times the
+ * size in the parameters. Data files are generated once in the directory given by the
+ * walk.bench.dir property (walk-bench by default) and reused by later runs; files read by
+ * the read cases are in the page cache after the warmup, so those numbers measure the read
+ * path and hashing rather than the disk. Run with
+ *   java -cp ... org.openjdk.jmh.Main WalkBenchmark [-p large=bytes]
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalkBenchmark {
+    private static final int SMALL_COUNT = 2000;
+    private static final int SMALL_SIZE = 4 << 10;
+    private static final int MEDIUM_COUNT = 64;
+    private static final int MEDIUM_SIZE = 1 << 20;
+    private static final int MEMORY_SIZE = 16 << 20;
+
+    @State(Scope.Thread)
+    public static class Data {
+        byte[] data;
+
+        @Setup
+        public void generate() {
+            data = new byte[MEMORY_SIZE];
+            new Random(0).nextBytes(data);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Memory extends Data {
+        @Param({"fnv32", "fnv64", "xxh64", "sha1", "sha256"})
+        public String function;
+
+        @Param({"heap", "direct"})
+        public String buffer;
+
+        ByteBuffer bytes;
+        Hasher hasher;
+        byte[] digest;
+
+        @Setup
+        public void setup() {
+            bytes = buffer.equals("heap") ? ByteBuffer.wrap(data) : ByteBuffer.allocateDirect(MEMORY_SIZE);
+            if (bytes.isDirect()) {
+                bytes.put(data).flip();
+            }
+            HashFunction f = HashFunctions.forName(function);
+            hasher = f.newHasher();
+            digest = new byte[f.length()];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Read {
+        @Param({"1048576", "1073741824"})
+        public long size;
+
+        Path file;
+        Hasher hasher = HashFunctions.FNV32.newHasher();
+        byte[] digest = new byte[HashFunctions.FNV32.length()];
+
+        @Setup
+        public void setup() throws IOException {
+            file = generate(dir().resolve("read"), 1, size).get(0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Buffered extends Read {
+        @Param({"4096", "65536", "262144", "1048576"})
+        public int bufferSize;
+
+        ByteBuffer heap;
+        ByteBuffer direct;
+
+        @Setup
+        public void allocate() {
+            heap = ByteBuffer.allocate(bufferSize);
+            direct = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Walk {
+        @Param({"small", "medium", "large", "tree"})
+        public String set;
+
+        /*
+         * 0 stands for all cores.
+         */
+        @Param({"1", "0"})
+        public int threads;
+
+        @Param("1073741824")
+        public long large;
+
+        List<Path> paths;
+        Walker walker;
+
+        @Setup
+        public void setup() throws IOException {
+            Path dir = dir().resolve("walk");
+            boolean tree = set.equals("tree");
+            if (tree || set.equals("small")) {
+                paths = generate(dir.resolve("small"), SMALL_COUNT, SMALL_SIZE);
+            }
+            if (tree || set.equals("medium")) {
+                paths = generate(dir.resolve("medium"), MEDIUM_COUNT, MEDIUM_SIZE);
+            }
+            if (tree || set.equals("large")) {
+                paths = generate(dir.resolve("large"), 1, large);
+            }
+            if (tree) {
+                paths = Collections.singletonList(dir);
+            }
+            int n = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+            walker = new Walker(HashFunctions.FNV32, n).recursive(tree);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            walker.close();
+        }
+    }
+
+    @Benchmark
+    public int memoryFnv32Loop(Data state) {
+        int h = 0x811c9dc5;
+        for (byte b : state.data) {
+            h = (h * 0x01000193) ^ (b & 0xff);
+        }
+        return h;
+    }
+
+    @Benchmark
+    public byte[] memoryHash(Memory state) {
+        state.hasher.reset();
+        state.hasher.update(state.bytes.duplicate().order(ByteOrder.BIG_ENDIAN));
+        state.hasher.digest(state.digest);
+        return state.digest;
+    }
+
+    @Benchmark
+    public int readStream1K(Read state) throws IOException {
+        int h = 0x811c9dc5;
+        byte[] buf = new byte[1024];
+        try (InputStream in = Files.newInputStream(state.file)) {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    h = (h * 0x01000193) ^ (buf[i] & 0xff);
+                }
+            }
+        }
+        return h;
+    }
+
+    @Benchmark
+    public byte[] readChannelHeap(Buffered state) throws IOException {
+        return channel(state.file, state.heap, state.hasher, state.digest);
+    }
+
+    @Benchmark
+    public byte[] readChannelDirect(Buffered state) throws IOException {
+        return channel(state.file, state.direct, state.hasher, state.digest);
+    }
+
+    @Benchmark
+    public byte[] readMmap(Read state) throws IOException {
+        state.hasher.reset();
+        try (FileChannel channel = FileChannel.open(state.file, StandardOpenOption.READ)) {
+            for (long pos = 0; pos < state.size; pos += Integer.MAX_VALUE) {
+                state.hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, state.size - pos)));
+            }
+        }
+        state.hasher.digest(state.digest);
+        return state.digest;
+    }
+
+    @Benchmark
+    public byte[] readFileHasher(Read state) throws IOException {
+        FileHasher.hash(state.file, state.hasher, state.digest);
+        return state.digest;
+    }
+
+    @Benchmark
+    public void walk(Walk state, Blackhole blackhole) {
+        try (Stream<HashResult> results = state.walker.walk(state.paths)) {
+            results.forEach(result -> blackhole.consume(result.getHash()));
+        }
+    }
+
+    private static byte[] channel(Path file, ByteBuffer buf, Hasher hasher, byte[] digest) throws IOException {
+        hasher.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf.clear();
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                hasher.update(buf);
+                buf.clear();
+            }
+        }
+        hasher.digest(digest);
+        return digest;
+    }
+
+    private static Path dir() {
+        return Paths.get(System.getProperty("walk.bench.dir", "walk-bench"));
+    }
+
+    /*
+     * Creates count files of the given size with random content, keeping any that already
+     * have the right size from an earlier run.
+     */
+    private static List<Path> generate(Path dir, int count, long size) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(count);
+        byte[] block = new byte[1 << 20];
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve(String.format("%05d-%d.bin", i, size));
+            files.add(file);
+            if (Files.exists(file) && Files.size(file) == size) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long left = size; left > 0; left -= block.length) {
+                    random.nextBytes(block);
+                    ByteBuffer buf = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, left));
+                    while (buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -2,24 +2,50 @@ package ru.ifmo.rain.kurilenko.arrayset;
 
 import java.util.*;
 
-public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
+/**
+ * Immutable sorted set kept in a sorted list. Every navigation is one binary search, and
+ * descending and range views share the list of the set they are taken from. Union,
+ * intersection and difference of two sets merge their lists, galloping over the larger
+ * one, so they take linear time for sets of similar size and <tt>O(m log(n / m))</tt>
+ * for a set of <tt>m</tt> elements and one of <tt>n</tt>.
+ *
+ * @param <E> type of the elements
+ */
+public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
     private List<E> a;
     private Comparator<? super E> comp = null;
 
     public ArraySet() {
-        a = new ArrayList<>();
+        a = Collections.emptyList();
     }
 
     public ArraySet(Collection<? extends E> c) {
         this(c, null);
     }
 
+    /*
+     * The elements are copied into one array once. Input that is already sorted and
+     * distinct, such as a sorted set with the same comparator, is used as it is after a
+     * linear check; anything else is sorted in place and its duplicates are squeezed out,
+     * keeping the first of equal elements.
+     */
+    @SuppressWarnings("unchecked")
     public ArraySet(Collection<? extends E> c, Comparator<? super E> com) {
         comp = com;
         try {
-            TreeSet<E> tree = new TreeSet<>(comp);
-            tree.addAll(c);
-            a = new ArrayList<>(tree);
+            E[] data = (E[]) c.toArray();
+            int n = data.length;
+            if (!(c instanceof SortedSet && Objects.equals(((SortedSet<?>) c).comparator(), comp)) && !isStrictlySorted(data)) {
+                Arrays.sort(data, comp);
+                n = 0;
+                for (E e : data) {
+                    if (n == 0 || compare(data[n - 1], e) != 0) {
+                        data[n++] = e;
+                    }
+                }
+                Arrays.fill(data, n, data.length, null);
+            }
+            a = new ArrayView<>(data, 0, n);
         } catch (ClassCastException e) {
             System.err.println ("Error: trying to create an array of non-comparable objects using default comparator");
         }
@@ -45,20 +71,71 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
         return Collections.binarySearch(a, (E) o, comp) >= 0;
     }
 
+    public E lower(E e) {
+        return get(lowerIndex(e, false));
+    }
+
+    public E floor(E e) {
+        return get(lowerIndex(e, true));
+    }
+
+    public E ceiling(E e) {
+        return get(higherIndex(e, true));
+    }
+
+    public E higher(E e) {
+        return get(higherIndex(e, false));
+    }
+
+    public E pollFirst() {
+        throw new UnsupportedOperationException("Error: set is immutable");
+    }
+
+    public E pollLast() {
+        throw new UnsupportedOperationException("Error: set is immutable");
+    }
+
     public ArraySet<E> headSet(E e) {
-        int to = check(Collections.binarySearch(a, e, comp));
-        return new ArraySet<>(a.subList(0, to), comp);
+        return headSet(e, false);
+    }
+
+    public ArraySet<E> headSet(E e, boolean inclusive) {
+        return new ArraySet<>(a.subList(0, lowerIndex(e, inclusive) + 1), comp);
     }
 
     public ArraySet<E> tailSet(E e) {
-        int from = check(Collections.binarySearch(a, e, comp));
-        return new ArraySet<>(a.subList(from, size()), comp);
+        return tailSet(e, true);
+    }
+
+    public ArraySet<E> tailSet(E e, boolean inclusive) {
+        return new ArraySet<>(a.subList(higherIndex(e, inclusive), size()), comp);
+    }
+
+    public ArraySet<E> subSet(E from, E to) {
+        return subSet(from, true, to, false);
+    }
+
+    public ArraySet<E> subSet(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("Error: lower bound is greater than upper bound");
+        }
+        int l = higherIndex(from, fromInclusive);
+        int r = lowerIndex(to, toInclusive) + 1;
+        return new ArraySet<>(a.subList(l, Math.max(l, r)), comp);
+    }
+
+    public ArraySet<E> descendingSet() {
+        return new ArraySet<>(ReversedList.of(a), reverse(comp));
     }
 
     public Iterator<E> iterator() {
         return Collections.unmodifiableList(a).iterator();
     }
 
+    public Iterator<E> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
     public Comparator<? super E> comparator() {
         return comp;
     }
@@ -67,12 +144,253 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
         return a.size();
     }
 
-    public ArraySet<E> subSet(E from, E to) {
-        return tailSet(from).headSet(to);
+    /**
+     * Returns the elements in either set; of equal elements, the one of <tt>x</tt> is kept.
+     *
+     * @param x   first set
+     * @param y   second set, with the same comparator
+     * @param <E> type of the elements
+     * @return union of the sets
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> ArraySet<E> union(ArraySet<E> x, ArraySet<E> y) {
+        x.checkComparator(y);
+        boolean xSmaller = x.size() <= y.size();
+        List<E> small = xSmaller ? x.a : y.a;
+        List<E> large = xSmaller ? y.a : x.a;
+        E[] data = (E[]) new Object[x.size() + y.size()];
+        int n = 0;
+        int i = 0;
+        for (E e : small) {
+            int k = x.gallop(large, i, e);
+            for (; i < k; i++) {
+                data[n++] = large.get(i);
+            }
+            if (i < large.size() && x.compare(large.get(i), e) == 0) {
+                data[n++] = xSmaller ? e : large.get(i);
+                i++;
+            } else {
+                data[n++] = e;
+            }
+        }
+        for (; i < large.size(); i++) {
+            data[n++] = large.get(i);
+        }
+        return new ArraySet<>(new ArrayView<>(data, 0, n), x.comp);
+    }
+
+    /**
+     * Returns the elements of <tt>x</tt> that are also in <tt>y</tt>.
+     *
+     * @param x   first set
+     * @param y   second set, with the same comparator
+     * @param <E> type of the elements
+     * @return intersection of the sets
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> ArraySet<E> intersection(ArraySet<E> x, ArraySet<E> y) {
+        x.checkComparator(y);
+        boolean xSmaller = x.size() <= y.size();
+        List<E> small = xSmaller ? x.a : y.a;
+        List<E> large = xSmaller ? y.a : x.a;
+        E[] data = (E[]) new Object[small.size()];
+        int n = 0;
+        int i = 0;
+        for (E e : small) {
+            i = x.gallop(large, i, e);
+            if (i == large.size()) {
+                break;
+            }
+            if (x.compare(large.get(i), e) == 0) {
+                data[n++] = xSmaller ? e : large.get(i);
+                i++;
+            }
+        }
+        return new ArraySet<>(new ArrayView<>(data, 0, n), x.comp);
+    }
+
+    /**
+     * Returns the elements of <tt>x</tt> that are not in <tt>y</tt>.
+     *
+     * @param x   first set
+     * @param y   second set, with the same comparator
+     * @param <E> type of the elements
+     * @return difference of the sets
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> ArraySet<E> difference(ArraySet<E> x, ArraySet<E> y) {
+        x.checkComparator(y);
+        E[] data = (E[]) new Object[x.size()];
+        int n = 0;
+        if (x.size() <= y.size()) {
+            int i = 0;
+            for (E e : x.a) {
+                i = x.gallop(y.a, i, e);
+                if (i < y.size() && x.compare(y.a.get(i), e) == 0) {
+                    i++;
+                } else {
+                    data[n++] = e;
+                }
+            }
+        } else {
+            int i = 0;
+            for (E e : y.a) {
+                int k = x.gallop(x.a, i, e);
+                for (; i < k; i++) {
+                    data[n++] = x.a.get(i);
+                }
+                if (i < x.size() && x.compare(x.a.get(i), e) == 0) {
+                    i++;
+                }
+            }
+            for (; i < x.size(); i++) {
+                data[n++] = x.a.get(i);
+            }
+        }
+        return new ArraySet<>(new ArrayView<>(data, 0, n), x.comp);
     }
 
-    private int check(int t) {
-        if (t < 0) return -t - 1;
-        else return t;
+    public ArraySet<E> union(ArraySet<E> other) {
+        return union(this, other);
+    }
+
+    public ArraySet<E> intersection(ArraySet<E> other) {
+        return intersection(this, other);
+    }
+
+    public ArraySet<E> difference(ArraySet<E> other) {
+        return difference(this, other);
+    }
+
+    private void checkComparator(ArraySet<E> other) {
+        if (!Objects.equals(comp, other.comp)) {
+            throw new IllegalArgumentException("Error: sets are ordered by different comparators");
+        }
+    }
+
+    /*
+     * Index of the first element of list not before from that is not less than e. Steps of
+     * 1, 2, 4... from from bracket it, then the last step is searched, which takes
+     * O(log(distance)) comparisons: a merge of two sets of similar size stays linear.
+     */
+    private int gallop(List<E> list, int from, E e) {
+        int n = list.size();
+        int lo = from;
+        int hi = from;
+        for (int step = 1; hi < n && compare(list.get(hi), e) < 0; step <<= 1) {
+            lo = hi + 1;
+            hi = step > n - from ? n : from + step;
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(list.get(mid), e) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /*
+     * Index of the greatest element below e (or equal to it), -1 if there is none.
+     */
+    private int lowerIndex(E e, boolean inclusive) {
+        int t = Collections.binarySearch(a, e, comp);
+        if (t >= 0) return inclusive ? t : t - 1;
+        else return -t - 2;
+    }
+
+    /*
+     * Index of the least element above e (or equal to it), size() if there is none.
+     */
+    private int higherIndex(E e, boolean inclusive) {
+        int t = Collections.binarySearch(a, e, comp);
+        if (t >= 0) return inclusive ? t : t + 1;
+        else return -t - 1;
+    }
+
+    private boolean isStrictlySorted(E[] data) {
+        for (int i = 1; i < data.length; i++) {
+            if (compare(data[i - 1], data[i]) >= 0) return false;
+        }
+        return true;
+    }
+
+    private E get(int i) {
+        return 0 <= i && i < size() ? a.get(i) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(E x, E y) {
+        return comp == null ? ((Comparable<? super E>) x).compareTo(y) : comp.compare(x, y);
+    }
+
+    /*
+     * Reversing twice gives back the original comparator, so a set reversed twice is equal
+     * in every respect to the set it came from.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Comparator<? super E> reverse(Comparator<? super E> comp) {
+        if (comp == null) return (Comparator<? super E>) Collections.reverseOrder();
+        else if (comp == Collections.reverseOrder()) return null;
+        else return Collections.reverseOrder(comp);
+    }
+
+    /*
+     * Read-only view of a range of an array; its sublists are views of the same array, so
+     * views of views cost no more to read than the first one.
+     */
+    private static class ArrayView<E> extends AbstractList<E> implements RandomAccess {
+        private final E[] data;
+        private final int from;
+        private final int to;
+
+        ArrayView(E[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        public E get(int i) {
+            if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("Error: index " + i + " out of " + size());
+            return data[from + i];
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public List<E> subList(int l, int r) {
+            if (l < 0 || r > size() || l > r) throw new IndexOutOfBoundsException("Error: range " + l + ".." + r + " out of " + size());
+            return new ArrayView<>(data, from + l, from + r);
+        }
+    }
+
+    /*
+     * Read-only view of a list in reverse order; reversing it again gives back the list.
+     */
+    private static class ReversedList<E> extends AbstractList<E> implements RandomAccess {
+        private final List<E> list;
+
+        private ReversedList(List<E> list) {
+            this.list = list;
+        }
+
+        static <E> List<E> of(List<E> list) {
+            return list instanceof ReversedList ? ((ReversedList<E>) list).list : new ReversedList<>(list);
+        }
+
+        public E get(int i) {
+            return list.get(list.size() - 1 - i);
+        }
+
+        public int size() {
+            return list.size();
+        }
+
+        public List<E> subList(int from, int to) {
+            return new ReversedList<>(list.subList(size() - to, size() - from));
+        }
     }
 }
@@ -0,0 +1,61 @@
+package ru.ifmo.rain.kurilenko.arrayset;
+
+/*
+ * Layout of the search index of IntArraySet and LongArraySet, which keep the tree itself
+ * in an array of their own type. The elements of a[from..to) are put in breadth-first
+ * order of a perfect binary search tree over them, padded at the end with MAX_VALUE: the
+ * root is tree[1] and the children of tree[k] are tree[2k] and tree[2k + 1]. A search goes
+ * down with k = 2k + (tree[k] < v), which compiles without a branch on the comparison;
+ * when it falls off the tree, the trailing ones of k are the right turns taken after the
+ * last left one, and dropping them with that left turn gives the slot of the answer. The
+ * answer is on the search path, so reading it costs no further miss, and in a perfect tree
+ * the sorted position of a slot and the slot of a position are a few shifts apart.
+ */
+class Eytzinger {
+    private final int from;
+    private final int n;
+    private final int height;
+
+    Eytzinger(int from, int to) {
+        this.from = from;
+        n = to - from;
+        height = 31 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+
+    /*
+     * Length of the tree array; slot 0 is not used.
+     */
+    int length() {
+        return 2 << height;
+    }
+
+    /*
+     * Whether a[i] is an element rather than padding, for i from from to from + length() - 2.
+     */
+    boolean contains(int i) {
+        return i - from < n;
+    }
+
+    /*
+     * Slot of a[i] in the tree, for i from from to from + length() - 2.
+     */
+    int slot(int i) {
+        int r = i - from + 1;
+        int up = Integer.numberOfTrailingZeros(r);
+        return (1 << (height - up)) + (r >>> (up + 1));
+    }
+
+    /*
+     * Index in a of the answer of a search that fell off the tree at k: the first element
+     * not less than the value, the end of the range if there is none.
+     */
+    int index(int k) {
+        int slot = k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+        if (slot == 0) {
+            return from + n;
+        }
+        int depth = 31 - Integer.numberOfLeadingZeros(slot);
+        int rank = ((2 * (slot - (1 << depth)) + 1) << (height - depth)) - 1;
+        return from + Math.min(rank, n);
+    }
+}
@@ -0,0 +1,325 @@
+package ru.ifmo.rain.kurilenko.arrayset;
+
+import java.util.*;
+import java.util.stream.LongStream;
+
+/**
+ * Immutable sorted set of <tt>long</tt>s kept in a sorted <tt>long[]</tt>: eight bytes per
+ * element, and lookups compare primitives without boxing or a comparator. Range views share
+ * the array of the set they are taken from. The boxed {@link SortedSet} methods work too.
+ * A large set can be given a {@link #indexed() search index} that keeps lookups in cache
+ * longer.
+ */
+public class LongArraySet extends AbstractSet<Long> implements SortedSet<Long> {
+    private final long[] a;
+    private final int from;
+    private final int to;
+    private final Index index;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0, null);
+    }
+
+    /*
+     * The values are copied once; a copy that is not strictly increasing is sorted and its
+     * duplicates are squeezed out in place.
+     */
+    public LongArraySet(long... values) {
+        long[] data = values.clone();
+        int n = data.length;
+        if (!isStrictlySorted(data)) {
+            Arrays.sort(data);
+            n = 0;
+            for (long v : data) {
+                if (n == 0 || data[n - 1] != v) {
+                    data[n++] = v;
+                }
+            }
+        }
+        a = data;
+        from = 0;
+        to = n;
+        index = null;
+    }
+
+    public LongArraySet(Collection<Long> c) {
+        this(c.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    private LongArraySet(long[] a, int from, int to, Index index) {
+        this.a = a;
+        this.from = from;
+        this.to = to;
+        this.index = index;
+    }
+
+    /**
+     * Returns the same set with a search index: a copy of the elements in breadth-first
+     * (Eytzinger) order of the binary search tree over them. The first levels of every
+     * search then share a few cache lines and each step reads one of two adjacent slots:
+     * lookups in a set that fits in cache take about half the time of a binary search, and
+     * in a set far larger than the cache they still take somewhat less. Range views of the
+     * returned set use the index too. It costs eight to sixteen bytes per element, as the tree
+     * is padded to a power of two.
+     *
+     * @return indexed set sharing the elements of this one
+     */
+    public LongArraySet indexed() {
+        return index != null ? this : new LongArraySet(a, from, to, new Index(a, from, to));
+    }
+
+    /**
+     * Returns whether the set contains the value.
+     *
+     * @param v value to look for
+     * @return whether the value is in the set
+     */
+    public boolean contains(long v) {
+        return search(v) >= 0;
+    }
+
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    /**
+     * Returns the least element.
+     *
+     * @return first element
+     * @throws NoSuchElementException if the set is empty
+     */
+    public long firstLong() {
+        return at(from);
+    }
+
+    /**
+     * Returns the greatest element.
+     *
+     * @return last element
+     * @throws NoSuchElementException if the set is empty
+     */
+    public long lastLong() {
+        return at(to - 1);
+    }
+
+    public Long first() {
+        return firstLong();
+    }
+
+    public Long last() {
+        return lastLong();
+    }
+
+    /**
+     * Returns the greatest element less than the value.
+     *
+     * @param v value
+     * @return element
+     * @throws NoSuchElementException if there is no such element
+     */
+    public long lower(long v) {
+        return at(lowerIndex(v, false));
+    }
+
+    /**
+     * Returns the greatest element less than or equal to the value.
+     *
+     * @param v value
+     * @return element
+     * @throws NoSuchElementException if there is no such element
+     */
+    public long floor(long v) {
+        return at(lowerIndex(v, true));
+    }
+
+    /**
+     * Returns the least element greater than or equal to the value.
+     *
+     * @param v value
+     * @return element
+     * @throws NoSuchElementException if there is no such element
+     */
+    public long ceiling(long v) {
+        return at(higherIndex(v, true));
+    }
+
+    /**
+     * Returns the least element greater than the value.
+     *
+     * @param v value
+     * @return element
+     * @throws NoSuchElementException if there is no such element
+     */
+    public long higher(long v) {
+        return at(higherIndex(v, false));
+    }
+
+    public LongArraySet headSet(long v) {
+        return new LongArraySet(a, from, higherIndex(v, true), index);
+    }
+
+    public LongArraySet tailSet(long v) {
+        return new LongArraySet(a, higherIndex(v, true), to, index);
+    }
+
+    public LongArraySet subSet(long l, long r) {
+        if (l > r) {
+            throw new IllegalArgumentException("Error: lower bound is greater than upper bound");
+        }
+        return new LongArraySet(a, higherIndex(l, true), higherIndex(r, true), index);
+    }
+
+    public LongArraySet headSet(Long v) {
+        return headSet((long) v);
+    }
+
+    public LongArraySet tailSet(Long v) {
+        return tailSet((long) v);
+    }
+
+    public LongArraySet subSet(Long l, Long r) {
+        return subSet((long) l, (long) r);
+    }
+
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int i = from;
+
+            public boolean hasNext() {
+                return i < to;
+            }
+
+            public long nextLong() {
+                if (i >= to) throw new NoSuchElementException("Error: no more elements");
+                return a[i++];
+            }
+        };
+    }
+
+    /**
+     * Returns the elements in increasing order.
+     *
+     * @return stream over the backing array
+     */
+    public LongStream longStream() {
+        return Arrays.stream(a, from, to);
+    }
+
+    /**
+     * Returns the elements in increasing order.
+     *
+     * @return new array
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(a, from, to);
+    }
+
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public int hashCode() {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h += Long.hashCode(a[i]);
+        }
+        return h;
+    }
+
+    /*
+     * Array index of the greatest element below v (or equal to it), from - 1 if there is none.
+     */
+    private int lowerIndex(long v, boolean inclusive) {
+        int t = search(v);
+        if (t >= 0) return inclusive ? t : t - 1;
+        else return -t - 2;
+    }
+
+    /*
+     * Array index of the least element above v (or equal to it), to if there is none.
+     */
+    private int higherIndex(long v, boolean inclusive) {
+        int t = search(v);
+        if (t >= 0) return inclusive ? t : t + 1;
+        else return -t - 1;
+    }
+
+    /*
+     * Same result as Arrays.binarySearch(a, from, to, v). The first element not less than v
+     * in the indexed range, clamped to this one, is the first one here too.
+     */
+    private int search(long v) {
+        if (index == null) {
+            return Arrays.binarySearch(a, from, to, v);
+        }
+        int i = Math.min(Math.max(index.lowerBound(v), from), to);
+        return i < to && index.get(i) == v ? i : -i - 1;
+    }
+
+    /*
+     * With an index, the element found by a search is read from the tree, where the search
+     * has just been.
+     */
+    private long at(int i) {
+        if (i < from || i >= to) throw new NoSuchElementException("Error: no such element");
+        return index != null ? index.get(i) : a[i];
+    }
+
+    private static boolean isStrictlySorted(long[] data) {
+        for (int i = 1; i < data.length; i++) {
+            if (data[i - 1] >= data[i]) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Elements of a[from..to) laid out as Eytzinger describes. The eight descendants of
+     * tree[k] three levels down are consecutive, one cache line, so each step also loads
+     * tree[8k]: the load does not hold up the search, but the line it brings in is the one
+     * the search needs three steps later. Java has no prefetch, and a load whose value is
+     * never used would be dropped, hence the sink. As in IntArraySet, the search is slower
+     * than a binary one without these loads.
+     */
+    private static class Index {
+        private final Eytzinger layout;
+        private final long[] tree;
+        private long sink;
+
+        Index(long[] a, int from, int to) {
+            layout = new Eytzinger(from, to);
+            tree = new long[layout.length()];
+            for (int i = from; i < from + tree.length - 1; i++) {
+                tree[layout.slot(i)] = layout.contains(i) ? a[i] : Long.MAX_VALUE;
+            }
+        }
+
+        /*
+         * Index in a of the first element not less than v, the end of the range if there is none.
+         */
+        int lowerBound(long v) {
+            long[] t = tree;
+            int mask = t.length - 1;
+            long touched = 0;
+            int k = 1;
+            while (k <= mask) {
+                touched ^= t[(k << 3) & mask];
+                k = 2 * k + (t[k] < v ? 1 : 0);
+            }
+            if (touched == 0x5eed) {
+                sink = touched;
+            }
+            return layout.index(k);
+        }
+
+        /*
+         * Element at index i of a, for i in the range.
+         */
+        long get(int i) {
+            return tree[layout.slot(i)];
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/*
+ * Hashes every file entry of a zip archive as "archive!/entry" without extracting it. The
+ * central directory gives random access to the entries, so they are hashed in forked
+ * batches like the files of a directory. An archive inside the archive can only be read
+ * as a stream, so its entries are hashed sequentially by the task that reached it, down to
+ * depth levels of nesting; deeper archives are hashed as plain entries.
+ */
+@SuppressWarnings("serial")
+class ArchiveTask extends RecursiveAction {
+    private static final int BATCH = 64;
+    private static final String SEPARATOR = "!/";
+
+    private final Walker walker;
+    private final Path archive;
+    private final int depth;
+    private final Consumer<HashResult> sink;
+
+    ArchiveTask(Walker walker, Path archive, int depth, Consumer<HashResult> sink) {
+        this.walker = walker;
+        this.archive = archive;
+        this.depth = depth;
+        this.sink = sink;
+    }
+
+    static boolean isArchiveName(String name) {
+        return endsWith(name, ".zip") || endsWith(name, ".jar") || endsWith(name, ".war") || endsWith(name, ".ear");
+    }
+
+    /*
+     * Case-insensitive by characters rather than by the rules of the default locale, which
+     * would not match ".ZIP" in a Turkish one.
+     */
+    private static boolean endsWith(String name, String suffix) {
+        return name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length());
+    }
+
+    /*
+     * Whether the name is one given to an archive entry: an archive name, the separator and
+     * the name of the entry.
+     */
+    static boolean isEntryName(String name) {
+        for (int i = name.indexOf(SEPARATOR); i >= 0; i = name.indexOf(SEPARATOR, i + 1)) {
+            if (isArchiveName(name.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void compute() {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            List<ForkJoinTask<Void>> forked = new ArrayList<>();
+            List<ZipEntry> batch = new ArrayList<>(BATCH);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    batch.add(entry);
+                    if (batch.size() == BATCH) {
+                        forked.add(new EntryBatch(zip, batch).fork());
+                        batch = new ArrayList<>(BATCH);
+                    }
+                }
+            }
+            hashAll(zip, batch);
+            for (ForkJoinTask<Void> task : forked) {
+                task.join();
+            }
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            sink.accept(walker.error(archive.toString(), e));
+        }
+    }
+
+    private void hashAll(ZipFile zip, List<ZipEntry> entries) {
+        for (ZipEntry entry : entries) {
+            String name = archive + SEPARATOR + entry.getName();
+            try (InputStream in = zip.getInputStream(entry)) {
+                if (depth > 1 && isArchiveName(entry.getName())) {
+                    hashNested(name, new ZipInputStream(in), depth - 1);
+                } else {
+                    sink.accept(walker.hash(name, in));
+                }
+            } catch (IOException e) {
+                sink.accept(walker.error(name, e));
+            }
+        }
+    }
+
+    /*
+     * The entries of a nested archive end where the entry holding it ends, so the nested
+     * stream is never closed here: that would close the enclosing one.
+     */
+    private void hashNested(String name, ZipInputStream zip, int depth) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String entryName = name + SEPARATOR + entry.getName();
+            if (depth > 1 && isArchiveName(entry.getName())) {
+                try {
+                    hashNested(entryName, new ZipInputStream(zip), depth - 1);
+                } catch (IOException e) {
+                    sink.accept(walker.error(entryName, e));
+                }
+            } else {
+                sink.accept(walker.hash(entryName, zip));
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class EntryBatch extends RecursiveAction {
+        private final ZipFile zip;
+        private final List<ZipEntry> entries;
+
+        EntryBatch(ZipFile zip, List<ZipEntry> entries) {
+            this.zip = zip;
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            hashAll(zip, entries);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Keeps up to depth files in flight, each with one outstanding read into a buffer of its
+ * own slot. A completed chunk is fed to the slot's hasher and the next read is issued from
+ * the completion handler, so no thread waits for a particular file. Memory is bounded by
+ * depth * CHUNK; a caller asking for more files blocks until a slot is free.
+ *
+ * The JDK implements AsynchronousFileChannel on Linux with blocking reads on the channel's
+ * executor, so the executor gets one thread per slot to keep depth reads outstanding.
+ */
+class AsyncHasher implements AutoCloseable {
+    private static final int CHUNK = 1 << 18;
+
+    private final HashFunction function;
+    private final HashCache cache;
+    private final WalkMetrics metrics;
+    private final BlockingQueue<Slot> free;
+    private final ExecutorService executor;
+
+    AsyncHasher(HashFunction function, HashCache cache, WalkMetrics metrics, int depth) {
+        this.function = function;
+        this.cache = cache;
+        this.metrics = metrics;
+        free = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Slot());
+        }
+        executor = Executors.newFixedThreadPool(depth, r -> {
+            Thread thread = new Thread(r, "async-walk");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    CompletableFuture<HashResult> hash(String name, Path path) throws InterruptedException {
+        CompletableFuture<HashResult> future = new CompletableFuture<>();
+        byte[] digest = new byte[function.length()];
+        HashCache.Stamp stamp = null;
+        try {
+            if (cache != null) {
+                stamp = cache.stamp(path);
+                if (cache.get(stamp, digest)) {
+                    future.complete(new HashResult(name, digest, null));
+                    return future;
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            future.complete(new HashResult(name, digest, e));
+            return future;
+        }
+        Slot slot = free.take();
+        slot.start(name, path, stamp, digest, future);
+        return future;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class Slot implements CompletionHandler<Integer, Void> {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+        private final Hasher hasher = function.newHasher();
+        private String name;
+        private HashCache.Stamp stamp;
+        private byte[] digest;
+        private CompletableFuture<HashResult> future;
+        private AsynchronousFileChannel channel;
+        private long position;
+        private long start;
+
+        void start(String name, Path path, HashCache.Stamp stamp, byte[] digest, CompletableFuture<HashResult> future) {
+            this.name = name;
+            this.stamp = stamp;
+            this.digest = digest;
+            this.future = future;
+            position = 0;
+            start = System.nanoTime();
+            hasher.reset();
+            buffer.clear();
+            try {
+                channel = AsynchronousFileChannel.open(path, Collections.singleton(StandardOpenOption.READ), executor);
+            } catch (IOException | SecurityException | UnsupportedOperationException e) {
+                finish(e);
+                return;
+            }
+            read();
+        }
+
+        private void read() {
+            try {
+                channel.read(buffer, position, null, this);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        @Override
+        public void completed(Integer n, Void attachment) {
+            try {
+                if (n < 0) {
+                    hasher.digest(digest);
+                    if (cache != null) {
+                        cache.put(stamp, digest);
+                    }
+                    finish(null);
+                    return;
+                }
+                position += n;
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            } catch (RuntimeException e) {
+                finish(e);
+                return;
+            }
+            read();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            finish(exc instanceof Exception ? (Exception) exc : new IOException(exc));
+        }
+
+        private void finish(Exception error) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+            if (metrics != null) {
+                metrics.record(position, System.nanoTime() - start);
+            }
+            HashResult result = error == null ? new HashResult(name, digest, null, ChunkingHashFunction.takeChunks(hasher))
+                    : new HashResult(name, new byte[function.length()], error);
+            CompletableFuture<HashResult> done = future;
+            future = null;
+            free.add(this);
+            done.complete(result);
+        }
+    }
+}
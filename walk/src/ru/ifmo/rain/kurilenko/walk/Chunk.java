@@ -0,0 +1,52 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+/**
+ * Content-defined piece of a file, see {@link HashFunctions#chunked(HashFunction, int)}.
+ */
+public final class Chunk {
+    private final long offset;
+    private final int length;
+    private final byte[] hash;
+
+    Chunk(long offset, int length, byte[] hash) {
+        this.offset = offset;
+        this.length = length;
+        this.hash = hash;
+    }
+
+    /**
+     * Returns the position of the chunk in the file.
+     *
+     * @return offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the size of the chunk.
+     *
+     * @return length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the digest of the chunk data.
+     *
+     * @return digest
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    byte[] digest() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return offset + " " + length + " " + HashResult.hex(hash);
+    }
+}
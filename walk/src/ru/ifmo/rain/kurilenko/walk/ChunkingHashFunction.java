@@ -0,0 +1,194 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Hashes the whole data with the base function and at the same time cuts it into chunks
+ * with a Gear rolling hash (h = (h << 1) + GEAR[byte]), hashing each chunk with the base
+ * function too. A chunk ends where the top bits of h are zero, which depends only on the
+ * last 64 bytes, so an insertion only moves the chunk boundaries near it. As in FastCDC,
+ * no cut is made before MIN bytes, a chunk is forced at MAX bytes, and the mask has one
+ * bit more before the average size and one bit less after it, which keeps sizes close to
+ * the average.
+ *
+ * Since h forgets a byte after WINDOW more, the first MIN - WINDOW bytes of a chunk are
+ * skipped and the next WINDOW are rolled in without looking for a cut. Data is processed
+ * BLOCK bytes at a time, finding cuts, hashing chunks and hashing the whole block while it
+ * is still in cache, so the data is only read once from memory.
+ */
+class ChunkingHashFunction implements HashFunction {
+    static final int MIN_AVERAGE = 1 << 8;
+    private static final int BLOCK = 1 << 14;
+    private static final int WINDOW = 64;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6765617248L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final HashFunction base;
+    private final int average;
+    private final int min;
+    private final int max;
+    private final long smallMask;
+    private final long largeMask;
+
+    ChunkingHashFunction(HashFunction base, int average) {
+        if (average < MIN_AVERAGE || Integer.bitCount(average) != 1 || average > 1 << 26) {
+            throw new IllegalArgumentException("average chunk size should be a power of two from "
+                    + MIN_AVERAGE + " to " + (1 << 26));
+        }
+        this.base = base;
+        this.average = average;
+        min = average / 4;
+        max = average * 8;
+        int bits = Integer.numberOfTrailingZeros(average);
+        smallMask = -1L << (64 - bits - 1);
+        largeMask = -1L << (64 - bits + 1);
+    }
+
+    @Override
+    public String name() {
+        return base.name() + "/cdc" + average;
+    }
+
+    @Override
+    public int length() {
+        return base.length();
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new ChunkingHasher();
+    }
+
+    /*
+     * Returns the chunks of the data just digested by the hasher, or no chunks if it does not chunk.
+     */
+    static List<Chunk> takeChunks(Hasher hasher) {
+        return hasher instanceof ChunkingHasher ? ((ChunkingHasher) hasher).takeChunks() : Collections.emptyList();
+    }
+
+    private class ChunkingHasher implements Hasher {
+        private final Hasher whole = base.newHasher();
+        private final Hasher chunk = base.newHasher();
+        private List<Chunk> chunks = new ArrayList<>();
+        private long gear = 0;
+        private long offset = 0;
+        private int length = 0;
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            for (int block = buffer.position(); block < limit; block += BLOCK) {
+                int end = Math.min(limit, block + BLOCK);
+                buffer.limit(end);
+                int start = block;
+                int i = block;
+                while (i < end) {
+                    int to;
+                    int cut = -1;
+                    if (length < min - WINDOW) {
+                        to = i + Math.min(end - i, min - WINDOW - length);
+                    } else if (length < min) {
+                        to = i + Math.min(end - i, min - length);
+                        roll(buffer, i, to);
+                    } else if (length < average) {
+                        to = i + Math.min(end - i, average - length);
+                        cut = scan(buffer, i, to, smallMask);
+                    } else {
+                        to = i + Math.min(end - i, max - length);
+                        cut = scan(buffer, i, to, largeMask);
+                        if (cut < 0 && length + to - i == max) {
+                            cut = to;
+                        }
+                    }
+                    if (cut < 0) {
+                        length += to - i;
+                        i = to;
+                        continue;
+                    }
+                    length += cut - i;
+                    buffer.limit(cut);
+                    buffer.position(start);
+                    chunk.update(buffer);
+                    buffer.limit(end);
+                    finishChunk();
+                    start = cut;
+                    i = cut;
+                }
+                buffer.position(start);
+                chunk.update(buffer);
+                buffer.position(block);
+                whole.update(buffer);
+            }
+            buffer.limit(limit);
+            buffer.position(limit);
+        }
+
+        private void roll(ByteBuffer buffer, int from, int to) {
+            long h = gear;
+            for (int i = from; i < to; i++) {
+                h = (h << 1) + GEAR[buffer.get(i) & 0xff];
+            }
+            gear = h;
+        }
+
+        /*
+         * Returns the position after the first cut in [from, to), or -1 if there is none.
+         */
+        private int scan(ByteBuffer buffer, int from, int to, long mask) {
+            long h = gear;
+            for (int i = from; i < to; i++) {
+                h = (h << 1) + GEAR[buffer.get(i) & 0xff];
+                if ((h & mask) == 0) {
+                    gear = h;
+                    return i + 1;
+                }
+            }
+            gear = h;
+            return -1;
+        }
+
+        private void finishChunk() {
+            byte[] digest = new byte[length()];
+            chunk.digest(digest);
+            chunks.add(new Chunk(offset, length, digest));
+            chunk.reset();
+            offset += length;
+            length = 0;
+            gear = 0;
+        }
+
+        @Override
+        public void digest(byte[] digest) {
+            if (length > 0) {
+                finishChunk();
+            }
+            whole.digest(digest);
+        }
+
+        @Override
+        public void reset() {
+            whole.reset();
+            chunk.reset();
+            chunks = new ArrayList<>();
+            gear = 0;
+            offset = 0;
+            length = 0;
+        }
+
+        List<Chunk> takeChunks() {
+            List<Chunk> result = chunks;
+            chunks = new ArrayList<>();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs a walk in worker processes. The input is cut into shards of SHARD lines, which
+ * workers take as they become free, so a slow shard does not hold up the others. A worker
+ * is a Walk started with --worker, either by the coordinator or on its own listening on a
+ * loopback port. It hashes one shard at a time: it reads a line with the number of names
+ * and the names, and answers with the output lines for them followed by a line with a
+ * single dot, which no output line can be.
+ *
+ * Finished shards are written in input order. At most WINDOW_PER_WORKER shards per worker
+ * are taken ahead of the oldest unwritten one, which bounds the output held in memory. A
+ * shard whose worker dies or disconnects goes to the next free worker and the worker is
+ * started or connected again; after MAX_ATTEMPTS failures the names of the shard are
+ * written with zero hashes. A worker that fails MAX_ATTEMPTS times in a row is given up,
+ * and once no worker is left the rest of the input is written with zero hashes too.
+ */
+class Coordinator {
+    static final String END = ".";
+    private static final int SHARD = 4096;
+    private static final int WINDOW_PER_WORKER = 4;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Iterator<String> input;
+    private final List<Callable<Link>> workers;
+    private final String failed;
+    private final long window;
+    private final ArrayDeque<Shard> retries = new ArrayDeque<>();
+    private final Map<Long, Shard> finished = new HashMap<>();
+    private long taken = 0;
+    private long written = 0;
+    private int running = 0;
+    private int live;
+    private boolean exhausted = false;
+    private IOException inputError;
+
+    /*
+     * Failed names are written after the given hash, the zero hash of the walk.
+     */
+    Coordinator(Iterator<String> input, List<Callable<Link>> workers, String failed) {
+        this.input = input;
+        this.workers = workers;
+        this.failed = failed;
+        window = (long) workers.size() * WINDOW_PER_WORKER;
+        live = workers.size();
+    }
+
+    void run(OutputStream out) throws IOException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            Callable<Link> worker = workers.get(i);
+            int number = i;
+            Thread thread = new Thread(() -> serve(number, worker), "walk-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                Shard shard;
+                synchronized (this) {
+                    while ((shard = finished.remove(written)) == null && !(exhausted && written == taken)) {
+                        if (live > 0) {
+                            wait();
+                            continue;
+                        }
+                        Shard lost = retries.isEmpty() ? next() : retries.removeFirst();
+                        if (lost != null) {
+                            lost.output = fail(lost);
+                            finished.put(lost.index, lost);
+                        }
+                    }
+                    if (shard == null) {
+                        break;
+                    }
+                    written++;
+                    notifyAll();
+                }
+                out.write(shard.output);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!done) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+        }
+        if (inputError != null) {
+            throw inputError;
+        }
+    }
+
+    private void serve(int number, Callable<Link> worker) {
+        Link link = null;
+        int failures = 0;
+        try {
+            while (failures < MAX_ATTEMPTS) {
+                Shard shard = take(number);
+                if (shard == null) {
+                    break;
+                }
+                try {
+                    if (link == null) {
+                        link = worker.call();
+                    }
+                    shard.output = link.hash(shard.names);
+                    failures = 0;
+                } catch (Exception e) {
+                    System.err.println("Error: worker " + number + " failed on input lines " + shard + ": " + e.getMessage());
+                    failures++;
+                    if (link != null) {
+                        link.kill();
+                        link = null;
+                    }
+                    shard.failedBy = number;
+                    if (++shard.attempts < MAX_ATTEMPTS) {
+                        requeue(shard);
+                        continue;
+                    }
+                    shard.output = fail(shard);
+                }
+                finish(shard);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (link != null) {
+                link.close();
+            }
+            synchronized (this) {
+                live--;
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Once the input is exhausted a free worker still waits for the running shards, any of
+     * which may come back to be retried.
+     */
+    private synchronized Shard take(int number) throws InterruptedException {
+        Shard shard;
+        while ((shard = retry(number)) == null
+                && (exhausted ? running > 0 || !retries.isEmpty() : taken - written >= window)) {
+            wait();
+        }
+        if (shard != null) {
+            retries.remove(shard);
+        } else {
+            shard = next();
+        }
+        if (shard != null) {
+            running++;
+        }
+        return shard;
+    }
+
+    /*
+     * A failed shard is left to the other workers while there are any, as the worker that
+     * failed it may well fail it again.
+     */
+    private Shard retry(int number) {
+        for (Shard shard : retries) {
+            if (shard.failedBy != number || live == 1) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Cuts the next shard from the input; called with the lock held.
+     */
+    private Shard next() {
+        List<String> names = new ArrayList<>();
+        try {
+            while (!exhausted && names.size() < SHARD) {
+                if (input.hasNext()) {
+                    names.add(input.next());
+                } else {
+                    exhausted = true;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            inputError = e.getCause();
+            exhausted = true;
+        }
+        if (names.isEmpty()) {
+            notifyAll();
+            return null;
+        }
+        return new Shard(taken++, names);
+    }
+
+    private synchronized void requeue(Shard shard) {
+        retries.addFirst(shard);
+        running--;
+        notifyAll();
+    }
+
+    private synchronized void finish(Shard shard) {
+        finished.put(shard.index, shard);
+        running--;
+        notifyAll();
+    }
+
+    private byte[] fail(Shard shard) {
+        System.err.println("Error: no worker hashed input lines " + shard);
+        StringBuilder lines = new StringBuilder();
+        for (String name : shard.names) {
+            lines.append(failed).append(' ').append(name).append(System.lineSeparator());
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Shard {
+        final long index;
+        final List<String> names;
+        int attempts = 0;
+        int failedBy = -1;
+        byte[] output;
+
+        Shard(long index, List<String> names) {
+            this.index = index;
+            this.names = names;
+        }
+
+        @Override
+        public String toString() {
+            return (index * SHARD + 1) + "-" + (index * SHARD + names.size());
+        }
+    }
+
+    /*
+     * Connection to one worker: a child process or a loopback socket.
+     */
+    static class Link implements Closeable {
+        private final Process process;
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        private Link(Process process, Socket socket, InputStream in, OutputStream out) {
+            this.process = process;
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        static Link start(List<String> command) throws IOException {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            return new Link(process, null, process.getInputStream(), process.getOutputStream());
+        }
+
+        static Link connect(int port) throws IOException {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            return new Link(null, socket, socket.getInputStream(), socket.getOutputStream());
+        }
+
+        byte[] hash(List<String> names) throws IOException {
+            out.write(names.size() + "\n");
+            for (String name : names) {
+                out.write(name);
+                out.write('\n');
+            }
+            out.flush();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Writer output = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+            for (String line = in.readLine(); !END.equals(line); line = in.readLine()) {
+                if (line == null) {
+                    throw new EOFException("worker closed the connection");
+                }
+                output.write(line);
+                output.write(System.lineSeparator());
+            }
+            output.flush();
+            return bytes.toByteArray();
+        }
+
+        /*
+         * Drops a failed worker without waiting for it.
+         */
+        void kill() {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            closeQuietly();
+        }
+
+        /*
+         * Closing the input makes a worker process finish, which it is given a moment to do.
+         */
+        @Override
+        public void close() {
+            closeQuietly();
+            if (process != null) {
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+class DigestHashFunction implements HashFunction {
+    private final String name;
+    private final String algorithm;
+    private final int length;
+
+    DigestHashFunction(String name, String algorithm, int length) {
+        this.name = name;
+        this.algorithm = algorithm;
+        this.length = length;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error: " + algorithm + " is not supported by the platform", e);
+        }
+        return new Hasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                md.update(buffer);
+            }
+
+            @Override
+            public void digest(byte[] digest) {
+                try {
+                    md.digest(digest, 0, length);
+                } catch (DigestException e) {
+                    throw new IllegalArgumentException("Error: digest buffer is too small", e);
+                }
+            }
+
+            @Override
+            public void reset() {
+                md.reset();
+            }
+        };
+    }
+}
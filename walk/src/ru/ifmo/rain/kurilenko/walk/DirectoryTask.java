@@ -0,0 +1,102 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/*
+ * One task per directory: subdirectories are forked as soon as they are listed and files
+ * are hashed in batches while the listing goes on, so idle workers steal both. A directory
+ * that can't be listed is reported as a failed result of its own. Archives are expanded in
+ * place by an ArchiveTask when the walker looks into them.
+ */
+@SuppressWarnings("serial")
+class DirectoryTask extends RecursiveAction {
+    private static final int BATCH = 64;
+
+    private final Walker walker;
+    private final Path dir;
+    private final Map<Object, CompletableFuture<HashResult>> seen;
+    private final Consumer<HashResult> sink;
+
+    DirectoryTask(Walker walker, Path dir, Map<Object, CompletableFuture<HashResult>> seen, Consumer<HashResult> sink) {
+        this.walker = walker;
+        this.dir = dir;
+        this.seen = seen;
+        this.sink = sink;
+    }
+
+    @Override
+    protected void compute() {
+        List<ForkJoinTask<Void>> forked = new ArrayList<>();
+        List<Path> batch = new ArrayList<>(BATCH);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    forked.add(new DirectoryTask(walker, entry, seen, sink).fork());
+                } else {
+                    batch.add(entry);
+                    if (batch.size() == BATCH) {
+                        forked.add(new FileBatch(batch).fork());
+                        batch = new ArrayList<>(BATCH);
+                    }
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            sink.accept(walker.error(dir.toString(), e));
+        } catch (DirectoryIteratorException e) {
+            sink.accept(walker.error(dir.toString(), e.getCause()));
+        }
+        hashAll(batch);
+        for (ForkJoinTask<Void> task : forked) {
+            task.join();
+        }
+    }
+
+    /*
+     * With async reads the whole batch is put in flight before the first result is waited
+     * for; the task doesn't finish until all of its results are in the sink.
+     */
+    private void hashAll(List<Path> files) {
+        List<CompletableFuture<HashResult>> reads = new ArrayList<>();
+        for (Path file : files) {
+            if (walker.isArchive(file)) {
+                walker.archiveTask(file, sink).invoke();
+            } else {
+                try {
+                    reads.add(walker.hashAsync(file.toString(), file, seen));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        for (CompletableFuture<HashResult> read : reads) {
+            sink.accept(read.join());
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class FileBatch extends RecursiveAction {
+        private final List<Path> files;
+
+        FileBatch(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            hashAll(files);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Files are grouped by size first, so a file of a unique size is never opened. Groups are
+ * then split by the hash of their first PREFIX bytes and finally by byte comparison against
+ * one member of each class, which stops at the first differing chunk. Each stage drops the
+ * groups that became singletons, so full reads are only spent on likely duplicates. The
+ * whole file is hashed once per class found, for the report.
+ */
+public class DuplicateFinder {
+    private static final int PREFIX = 4096;
+    private static final int COMPARE_BUFFER = 1 << 16;
+
+    private final HashFunction function = HashFunctions.XXH64;
+    private final ThreadLocal<Hasher> hashers = ThreadLocal.withInitial(function::newHasher);
+
+    public static void main(String[] args) {
+        if (args == null || args.length < 2 || args.length > 3 || args[0] == null || args[1] == null) {
+            System.out.println("Usage: DuplicateFinder input output [threads]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3) {
+            try {
+                threads = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: can't parse number of threads: " + e.getMessage());
+                return;
+            }
+            if (threads < 1) {
+                System.err.println("Error: number of threads should be positive");
+                return;
+            }
+        }
+        List<String> names;
+        try {
+            names = Files.readAllLines(Paths.get(args[0]));
+        } catch (InvalidPathException e) {
+            System.err.println("Error: input path " + args[0] + " is invalid");
+            return;
+        } catch (IOException e) {
+            System.err.println("Error: I/O exception in input file " + args[0]);
+            return;
+        }
+        DuplicateFinder finder = new DuplicateFinder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (BufferedWriter w = Files.newBufferedWriter(Paths.get(args[1]))) {
+            for (Group group : finder.find(finder.collect(names), pool)) {
+                String hash = HashResult.hex(group.hash);
+                for (Path file : group.files) {
+                    w.write(hash + " " + file + System.lineSeparator());
+                }
+                w.write(System.lineSeparator());
+            }
+        } catch (InvalidPathException e) {
+            System.err.println("Error: output path " + args[1] + " is invalid");
+        } catch (IOException e) {
+            System.err.println("Error: I/O exception in output file " + args[1]);
+        } catch (InterruptedException e) {
+            System.err.println("Error: search was interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Map<Long, List<Path>> collect(List<String> names) {
+        Map<Long, List<Path>> bySize = new LinkedHashMap<>();
+        Set<Object> seen = new HashSet<>();
+        for (String name : names) {
+            try {
+                Files.walkFileTree(Paths.get(name), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        Object key = attrs.fileKey();
+                        try {
+                            if (key == null) {
+                                key = file.toRealPath();
+                            }
+                        } catch (IOException e) {
+                            return visitFileFailed(file, e);
+                        }
+                        if (seen.add(key)) {
+                            bySize.computeIfAbsent(attrs.size(), s -> new ArrayList<>()).add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        System.err.println("Error: I/O exception in file " + file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (InvalidPathException e) {
+                System.err.println("Error: path " + name + " not found");
+            } catch (IOException e) {
+                System.err.println("Error: I/O exception in file " + name);
+            } catch (SecurityException e) {
+                System.err.println("Error: security violation in file " + name);
+            }
+        }
+        return bySize;
+    }
+
+    private List<Group> find(Map<Long, List<Path>> bySize, ExecutorService pool) throws InterruptedException {
+        List<Future<List<Group>>> futures = new ArrayList<>();
+        for (Map.Entry<Long, List<Path>> e : bySize.entrySet()) {
+            if (e.getValue().size() > 1) {
+                long size = e.getKey();
+                List<Path> files = e.getValue();
+                futures.add(pool.submit(() -> split(size, files)));
+            }
+        }
+        List<Group> groups = new ArrayList<>();
+        for (Future<List<Group>> future : futures) {
+            try {
+                groups.addAll(future.get());
+            } catch (ExecutionException e) {
+                System.err.println("Error: duplicate search failed: " + e.getCause());
+            }
+        }
+        return groups;
+    }
+
+    private List<Group> split(long size, List<Path> files) {
+        List<Group> result = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, List<Path>> prefix : byHash(files, PREFIX).entrySet()) {
+            if (prefix.getValue().size() < 2) {
+                continue;
+            }
+            for (List<Path> same : byContent(prefix.getValue())) {
+                byte[] hash = size <= PREFIX ? prefix.getKey().array() : hash(same.get(0), Long.MAX_VALUE);
+                if (hash != null) {
+                    result.add(new Group(hash, same));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<ByteBuffer, List<Path>> byHash(List<Path> files, long limit) {
+        Map<ByteBuffer, List<Path>> groups = new LinkedHashMap<>();
+        for (Path file : files) {
+            byte[] digest = hash(file, limit);
+            if (digest != null) {
+                groups.computeIfAbsent(ByteBuffer.wrap(digest), d -> new ArrayList<>()).add(file);
+            }
+        }
+        return groups;
+    }
+
+    /*
+     * Hash of the first limit bytes of the file, or null if it can't be read.
+     */
+    private byte[] hash(Path file, long limit) {
+        byte[] digest = new byte[function.length()];
+        try {
+            FileHasher.hash(file, hashers.get(), digest, limit);
+            return digest;
+        } catch (IOException e) {
+            System.err.println("Error: I/O exception in file " + file);
+        } catch (SecurityException e) {
+            System.err.println("Error: security violation in file " + file);
+        }
+        return null;
+    }
+
+    private List<List<Path>> byContent(List<Path> files) {
+        List<List<Path>> classes = new ArrayList<>();
+        for (Path file : files) {
+            List<Path> match = null;
+            for (List<Path> c : classes) {
+                try {
+                    if (sameContent(c.get(0), file)) {
+                        match = c;
+                        break;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error: I/O exception while comparing " + c.get(0) + " and " + file);
+                }
+            }
+            if (match == null) {
+                match = new ArrayList<>();
+                classes.add(match);
+            }
+            match.add(file);
+        }
+        classes.removeIf(c -> c.size() < 2);
+        return classes;
+    }
+
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel cb = FileChannel.open(b, StandardOpenOption.READ)) {
+            ByteBuffer ba = ByteBuffer.allocate(COMPARE_BUFFER);
+            ByteBuffer bb = ByteBuffer.allocate(COMPARE_BUFFER);
+            while (true) {
+                ba.clear();
+                bb.clear();
+                int na = fill(ca, ba);
+                int nb = fill(cb, bb);
+                if (na != nb) {
+                    return false;
+                }
+                ba.flip();
+                bb.flip();
+                if (!ba.equals(bb)) {
+                    return false;
+                }
+                if (na < COMPARE_BUFFER) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static int fill(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            // short reads are possible, keep reading until the buffer is full or the file ends
+        }
+        return buf.position();
+    }
+
+    private static class Group {
+        private final byte[] hash;
+        private final List<Path> files;
+
+        Group(byte[] hash, List<Path> files) {
+            this.hash = hash;
+            this.files = files;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Small files are read through a direct buffer owned by the calling thread, so each read
+ * is one syscall per BUFFER_SIZE bytes without copying through the heap. Files of at
+ * least MAP_THRESHOLD bytes are mapped in MAP_WINDOW sized regions instead. A tree hash of
+ * a file longer than one leaf is left to TreeHashFunction, which hashes the leaves in parallel.
+ */
+final class FileHasher {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_THRESHOLD = 1 << 20;
+    private static final long MAP_WINDOW = 1 << 26;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> HEAP_BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    private FileHasher() {
+    }
+
+    /*
+     * Each method returns the number of bytes hashed.
+     */
+    static long hash(Path path, Hasher hasher, byte[] digest) throws IOException {
+        return hash(path, hasher, digest, Long.MAX_VALUE);
+    }
+
+    static long hash(Path path, Hasher hasher, byte[] digest, long limit) throws IOException {
+        hasher.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), limit);
+            if (hasher instanceof TreeHashFunction.TreeHasher
+                    && size > ((TreeHashFunction.TreeHasher) hasher).function().leaf()) {
+                ((TreeHashFunction.TreeHasher) hasher).function().hashMapped(channel, size, digest);
+                return size;
+            }
+            if (size >= MAP_THRESHOLD) {
+                hashMapped(channel, size, hasher);
+            } else {
+                size = hashRead(channel, hasher, limit);
+            }
+            hasher.digest(digest);
+            return size;
+        }
+    }
+
+    /*
+     * Streams have no channel to read into a direct buffer, so they are read into a heap one.
+     */
+    static long hash(InputStream in, Hasher hasher, byte[] digest) throws IOException {
+        hasher.reset();
+        ByteBuffer buf = HEAP_BUFFERS.get();
+        long total = 0;
+        int n;
+        while ((n = in.read(buf.array())) >= 0) {
+            buf.clear().limit(n);
+            hasher.update(buf);
+            total += n;
+        }
+        hasher.digest(digest);
+        return total;
+    }
+
+    private static void hashMapped(FileChannel channel, long size, Hasher hasher) throws IOException {
+        for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+            hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+        }
+    }
+
+    private static long hashRead(FileChannel channel, Hasher hasher, long limit) throws IOException {
+        ByteBuffer buf = BUFFERS.get();
+        long left = limit;
+        while (left > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), left));
+            int n = channel.read(buf);
+            if (n < 0) {
+                break;
+            }
+            buf.flip();
+            hasher.update(buf);
+            left -= n;
+        }
+        return limit - left;
+    }
+}
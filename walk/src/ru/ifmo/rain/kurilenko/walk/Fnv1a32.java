@@ -0,0 +1,47 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.nio.ByteBuffer;
+
+class Fnv1a32 implements HashFunction {
+    private static final int OFFSET = 0x811c9dc5;
+    private static final int PRIME = 0x01000193;
+
+    @Override
+    public String name() {
+        return "fnv32";
+    }
+
+    @Override
+    public int length() {
+        return 4;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Hasher() {
+            private int x = OFFSET;
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                int h = x;
+                for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+                    h = (h * PRIME) ^ (buffer.get(i) & 0xff);
+                }
+                x = h;
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public void digest(byte[] digest) {
+                for (int i = 0; i < 4; i++) {
+                    digest[i] = (byte) (x >>> (24 - 8 * i));
+                }
+            }
+
+            @Override
+            public void reset() {
+                x = OFFSET;
+            }
+        };
+    }
+}
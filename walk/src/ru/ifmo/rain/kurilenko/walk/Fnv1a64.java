@@ -0,0 +1,45 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.nio.ByteBuffer;
+
+class Fnv1a64 implements HashFunction {
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    @Override
+    public String name() {
+        return "fnv64";
+    }
+
+    @Override
+    public int length() {
+        return 8;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Hasher() {
+            private long x = OFFSET;
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                long h = x;
+                for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+                    h = (h * PRIME) ^ (buffer.get(i) & 0xff);
+                }
+                x = h;
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public void digest(byte[] digest) {
+                XxHash64.putLong(digest, x);
+            }
+
+            @Override
+            public void reset() {
+                x = OFFSET;
+            }
+        };
+    }
+}
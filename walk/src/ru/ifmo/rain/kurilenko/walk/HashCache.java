@@ -0,0 +1,190 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps a file (its file key, or its real path where the file system has no keys) to the
+ * hash it had at a given size and modification time. On disk the cache is a header with
+ * the hash function name followed by records of key length, UTF-8 key, size, mtime in
+ * nanoseconds and digest. A cache written with another hash function is ignored.
+ * It is loaded through a mapped buffer and rewritten to a temporary file on save, which
+ * then replaces the old one, so an interrupted save never leaves a broken cache.
+ */
+public class HashCache {
+    private static final int MAGIC = 0x57484332;
+
+    private final Path file;
+    private final HashFunction function;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+    private volatile boolean trusted = true;
+
+    private HashCache(Path file, HashFunction function) {
+        this.file = file;
+        this.function = function;
+    }
+
+    /**
+     * Loads the cache from the given file; a missing file gives an empty cache.
+     *
+     * @param file     cache file
+     * @param function hash function the cached digests belong to
+     * @return loaded cache
+     * @throws IOException if the file can't be read or is not a hash cache
+     */
+    public static HashCache load(Path file, HashFunction function) throws IOException {
+        HashCache cache = new HashCache(file, function);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+                throw new IOException(file + " is not a hash cache");
+            }
+            byte[] name = new byte[buf.get() & 0xff];
+            buf.get(name);
+            if (!function.name().equals(new String(name, StandardCharsets.UTF_8))) {
+                return cache;
+            }
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buf.getShort() & 0xffff];
+                buf.get(key);
+                long size = buf.getLong();
+                long mtime = buf.getLong();
+                byte[] hash = new byte[function.length()];
+                buf.get(hash);
+                cache.entries.put(new String(key, StandardCharsets.UTF_8), new Entry(size, mtime, hash));
+            }
+        } catch (NoSuchFileException e) {
+            return cache;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("hash cache " + file + " is truncated");
+        }
+        return cache;
+    }
+
+    /**
+     * Sets whether stored hashes are used. An untrusted cache hashes every file again and
+     * only records the new hashes, so a later trusted run can rely on them.
+     *
+     * @param trusted whether a file of the stored size and mtime may keep its stored hash
+     * @return this cache
+     */
+    public HashCache trusted(boolean trusted) {
+        this.trusted = trusted;
+        return this;
+    }
+
+    /*
+     * Returns the number of bytes read, 0 if the hash was in the cache.
+     */
+    long hash(Path path, Hasher hasher, byte[] digest) throws IOException {
+        Stamp stamp = stamp(path);
+        if (get(stamp, digest)) {
+            return 0;
+        }
+        long read = FileHasher.hash(path, hasher, digest);
+        put(stamp, digest);
+        return read;
+    }
+
+    Stamp stamp(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = attrs.fileKey() != null ? attrs.fileKey().toString() : path.toRealPath().toString();
+        return new Stamp(key, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+    }
+
+    boolean get(Stamp stamp, byte[] digest) {
+        Entry entry = trusted ? entries.get(stamp.key) : null;
+        if (entry != null && entry.size == stamp.size && entry.mtime == stamp.mtime) {
+            System.arraycopy(entry.hash, 0, digest, 0, entry.hash.length);
+            return true;
+        }
+        return false;
+    }
+
+    void put(Stamp stamp, byte[] digest) {
+        entries.put(stamp.key, new Entry(stamp.size, stamp.mtime, Arrays.copyOf(digest, function.length())));
+        dirty = true;
+    }
+
+    /**
+     * Writes the cache back to its file if anything has changed since it was loaded.
+     *
+     * @throws IOException if the cache can't be written
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            List<byte[]> keys = new ArrayList<>(entries.size());
+            List<Entry> values = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+                if (key.length <= 0xffff) {
+                    keys.add(key);
+                    values.add(e.getValue());
+                }
+            }
+            byte[] name = function.name().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(MAGIC);
+            out.writeByte(name.length);
+            out.write(name);
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                Entry entry = values.get(i);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.write(entry.hash);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    static class Stamp {
+        private final String key;
+        private final long size;
+        private final long mtime;
+
+        private Stamp(String key, long size, long mtime) {
+            this.key = key;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final byte[] hash;
+
+        Entry(long size, long mtime, byte[] hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+/**
+ * Hash algorithm that can be selected for a walk.
+ * <p>
+ * Implementations other than the built-in ones are found through {@link java.util.ServiceLoader},
+ * see {@link HashFunctions#forName(String)}.
+ */
+public interface HashFunction {
+    /**
+     * Returns the name the algorithm is selected by.
+     *
+     * @return name of the algorithm
+     */
+    String name();
+
+    /**
+     * Returns the length of the digest.
+     *
+     * @return digest length in bytes
+     */
+    int length();
+
+    /**
+     * Creates a new hashing state. States are not thread-safe, but may be reused after {@link Hasher#reset()}.
+     *
+     * @return new hasher
+     */
+    Hasher newHasher();
+}
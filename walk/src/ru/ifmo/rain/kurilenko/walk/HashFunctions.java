@@ -0,0 +1,100 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Built-in hash functions and lookup by name.
+ */
+public final class HashFunctions {
+    /**
+     * 32-bit FNV-1a, the hash Walk has always written.
+     */
+    public static final HashFunction FNV32 = new Fnv1a32();
+
+    /**
+     * 64-bit FNV-1a.
+     */
+    public static final HashFunction FNV64 = new Fnv1a64();
+
+    /**
+     * 64-bit xxHash with seed 0, consuming 32-byte stripes as four 64-bit lanes.
+     */
+    public static final HashFunction XXH64 = new XxHash64();
+
+    /**
+     * SHA-1 from the platform {@link java.security.MessageDigest}.
+     */
+    public static final HashFunction SHA1 = new DigestHashFunction("sha1", "SHA-1", 20);
+
+    /**
+     * SHA-256 from the platform {@link java.security.MessageDigest}.
+     */
+    public static final HashFunction SHA256 = new DigestHashFunction("sha256", "SHA-256", 32);
+
+    private static final List<HashFunction> BUILT_IN = Arrays.asList(FNV32, FNV64, XXH64, SHA1, SHA256);
+
+    private HashFunctions() {
+    }
+
+    /*
+     * Built-in functions in the order of their names in the usage text.
+     */
+    static List<HashFunction> builtIn() {
+        return BUILT_IN;
+    }
+
+    /**
+     * Returns a tree hash over the given function: the data is split into leaves of <tt>leaf</tt>
+     * bytes, the leaves are hashed with <tt>base</tt>, and adjacent digests are hashed together
+     * level by level up to a single root. Leaves of a file are hashed in parallel when it is
+     * hashed by a {@link Walker}. Data of at most one leaf hashes the same as with <tt>base</tt>.
+     *
+     * @param base function to hash leaves and inner nodes with
+     * @param leaf leaf size in bytes, at least 1024
+     * @return tree hash function named <tt>base/tree&lt;leaf&gt;</tt>
+     * @throws IllegalArgumentException if the leaf size is too small
+     */
+    public static HashFunction tree(HashFunction base, int leaf) {
+        return new TreeHashFunction(base, leaf);
+    }
+
+    /**
+     * Returns a function that hashes data with <tt>base</tt> and in the same pass splits it into
+     * content-defined chunks of about <tt>average</tt> bytes, each hashed with <tt>base</tt> as well.
+     * A change in the data only changes the chunks around it. Chunks of a file hashed by a
+     * {@link Walker} are returned by {@link HashResult#getChunks()}; the digest is the one of
+     * <tt>base</tt>.
+     *
+     * @param base    function to hash the data and the chunks with
+     * @param average average chunk size in bytes, a power of two of at least 256
+     * @return chunking function named <tt>base/cdc&lt;average&gt;</tt>
+     * @throws IllegalArgumentException if the average size is not valid
+     */
+    public static HashFunction chunked(HashFunction base, int average) {
+        return new ChunkingHashFunction(base, average);
+    }
+
+    /**
+     * Finds a hash function by its {@link HashFunction#name()}, looking at built-in functions first
+     * and then at the ones registered as {@link HashFunction} services.
+     *
+     * @param name name of the function
+     * @return function with the given name
+     * @throws IllegalArgumentException if there is no such function
+     */
+    public static HashFunction forName(String name) {
+        for (HashFunction function : BUILT_IN) {
+            if (function.name().equals(name)) {
+                return function;
+            }
+        }
+        for (HashFunction function : ServiceLoader.load(HashFunction.class)) {
+            if (function.name().equals(name)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("unknown hash function " + name);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Hash of a single file produced by a {@link Walker}.
+ */
+public class HashResult {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String path;
+    private final byte[] hash;
+    private final Exception error;
+    private final List<Chunk> chunks;
+    /* Position of the input item the result was produced for, set by Walker. */
+    long index;
+    /* Result for another path to the same file; Walker copies it before handing this one out. */
+    final Future<HashResult> same;
+
+    HashResult(String path, byte[] hash, Exception error) {
+        this(path, hash, error, Collections.emptyList());
+    }
+
+    HashResult(String path, byte[] hash, Exception error, List<Chunk> chunks) {
+        this.path = path;
+        this.hash = hash;
+        this.error = error;
+        this.chunks = chunks;
+        same = null;
+    }
+
+    HashResult(String path, Future<HashResult> same) {
+        this.path = path;
+        this.hash = null;
+        this.error = null;
+        this.chunks = null;
+        this.same = same;
+    }
+
+    HashResult renamed(String path) {
+        return new HashResult(path, hash, error, chunks);
+    }
+
+    /**
+     * Returns the path of the file as it was given or found.
+     *
+     * @return path of the file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the digest of the file, all zeroes if the file could not be hashed.
+     *
+     * @return digest of the file
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /* The digest itself, for writers that must not copy it. */
+    byte[] digest() {
+        return hash;
+    }
+
+    /**
+     * Returns the digest as lowercase hex, the way it is written by {@link Walk}.
+     *
+     * @return hex digest
+     */
+    public String getHex() {
+        return hex(hash);
+    }
+
+    static String hex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Returns the content-defined chunks of the file, in file order, if it was hashed with a
+     * {@link HashFunctions#chunked chunking} function.
+     *
+     * @return chunks, empty if the file was not chunked
+     */
+    public List<Chunk> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    List<Chunk> chunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns the reason the file could not be hashed: an {@link java.nio.file.InvalidPathException},
+     * an {@link java.io.IOException} or a {@link SecurityException}.
+     *
+     * @return error or <code>null</code> if the file was hashed
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return getHex() + " " + path;
+    }
+}
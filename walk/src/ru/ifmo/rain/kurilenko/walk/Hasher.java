@@ -0,0 +1,28 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental state of a {@link HashFunction}.
+ */
+public interface Hasher {
+    /**
+     * Feeds all remaining bytes of the buffer to the hash, leaving buffer position at its limit.
+     * The byte order of the buffer is not changed.
+     *
+     * @param buffer data to hash
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Writes the digest of all data fed since the last reset.
+     *
+     * @param digest array of at least {@link HashFunction#length()} bytes to write the digest to
+     */
+    void digest(byte[] digest);
+
+    /**
+     * Returns the hasher to its initial state.
+     */
+    void reset();
+}
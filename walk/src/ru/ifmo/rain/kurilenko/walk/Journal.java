@@ -0,0 +1,98 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Append-only log of checkpoints, each saying that input up to some byte offset has been
+ * fully written to output up to some byte offset. Records carry a checksum, so a record
+ * torn by a crash is ignored and the previous one is used. The journal is deleted once
+ * the walk has finished.
+ */
+class Journal implements Closeable {
+    private static final long MAGIC = 0x57616c6b4a726e6cL;
+    private static final int RECORD = 24;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD);
+    private long input = 0;
+    private long output = 0;
+
+    private Journal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static Journal open(Path file) throws IOException {
+        Journal journal = new Journal(file, FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try {
+            journal.recover();
+        } catch (IOException e) {
+            journal.channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size() / RECORD * RECORD;
+        long valid = 0;
+        ByteBuffer buf = ByteBuffer.allocate(RECORD);
+        for (long pos = size - RECORD; pos >= 0; pos -= RECORD) {
+            buf.clear();
+            while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) >= 0) {
+                // read the whole record
+            }
+            buf.flip();
+            long in = buf.getLong(), out = buf.getLong();
+            if (buf.getLong() == (in ^ out ^ MAGIC)) {
+                input = in;
+                output = out;
+                valid = pos + RECORD;
+                break;
+            }
+        }
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    boolean isResumed() {
+        return input > 0 || output > 0;
+    }
+
+    long input() {
+        return input;
+    }
+
+    long output() {
+        return output;
+    }
+
+    void checkpoint(long input, long output) throws IOException {
+        record.clear();
+        record.putLong(input).putLong(output).putLong(input ^ output ^ MAGIC).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(false);
+        this.input = input;
+        this.output = output;
+    }
+
+    void finish() throws IOException {
+        channel.close();
+        Files.delete(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,105 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Reads UTF-8 lines like BufferedReader.readLine, but also remembers the byte offset just
+ * past every line it returned until the caller releases it.
+ */
+class LineReader implements Iterator<String> {
+    private final InputStream in;
+    private final byte[] buf = new byte[1 << 16];
+    private final ArrayDeque<Long> ends = new ArrayDeque<>();
+    private int pos = 0, limit = 0;
+    private long offset;
+    private byte[] line = new byte[256];
+    private String next;
+    private boolean eof = false;
+
+    LineReader(InputStream in, long offset) {
+        this.in = in;
+        this.offset = offset;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !eof) {
+            try {
+                next = readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String result = next;
+        next = null;
+        ends.addLast(offset);
+        return result;
+    }
+
+    /*
+     * Returns the offset past the last of the given number of oldest unreleased lines
+     * and forgets about them.
+     */
+    long release(long lines) {
+        long end = -1;
+        for (long i = 0; i < lines; i++) {
+            end = ends.removeFirst();
+        }
+        return end;
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (pos == limit && !fillBuffer()) {
+                eof = true;
+                return length > 0 ? decode(length) : null;
+            }
+            byte b = buf[pos++];
+            offset++;
+            if (b == '\n') {
+                return decode(length);
+            }
+            if (b == '\r') {
+                if ((pos < limit || fillBuffer()) && buf[pos] == '\n') {
+                    pos++;
+                    offset++;
+                }
+                return decode(length);
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int n = in.read(buf);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private String decode(int length) {
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
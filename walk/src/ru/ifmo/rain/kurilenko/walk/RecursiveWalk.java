@@ -0,0 +1,8 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+public class RecursiveWalk {
+
+    public static void main(String[] args) {
+        Walk.run(args, true);
+    }
+}
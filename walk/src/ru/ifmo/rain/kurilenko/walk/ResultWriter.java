@@ -0,0 +1,138 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writes "hash path" lines straight into one large buffer that is handed to the channel
+ * when full: hex digits are encoded from the digest bytes, ASCII paths are copied char by
+ * char and other paths go through a reused encoder. Nothing is allocated per line unless a
+ * path is longer than every path before it.
+ */
+class ResultWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final byte[] suffix;
+    private final byte[] digits = new byte[20];
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    /*
+     * The suffix is written right after every hash.
+     */
+    ResultWriter(WritableByteChannel channel, String suffix) {
+        this.channel = channel;
+        this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    void write(byte[] hash, String path) throws IOException {
+        reserve(2 * hash.length + suffix.length + 1);
+        for (byte b : hash) {
+            buffer.put(HEX[(b >> 4) & 0xf]);
+            buffer.put(HEX[b & 0xf]);
+        }
+        buffer.put(suffix);
+        buffer.put((byte) ' ');
+        writePath(path);
+        reserve(NEW_LINE.length);
+        buffer.put(NEW_LINE);
+    }
+
+    /*
+     * Chunk records follow the line of their file, each as "\toffset length hash".
+     */
+    void writeChunk(long offset, int length, byte[] hash) throws IOException {
+        reserve(2 * digits.length + 2 * hash.length + 3 + NEW_LINE.length);
+        buffer.put((byte) '\t');
+        writeDecimal(offset);
+        buffer.put((byte) ' ');
+        writeDecimal(length);
+        buffer.put((byte) ' ');
+        for (byte b : hash) {
+            buffer.put(HEX[(b >> 4) & 0xf]);
+            buffer.put(HEX[b & 0xf]);
+        }
+        buffer.put(NEW_LINE);
+    }
+
+    private void writeDecimal(long value) {
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    private void writePath(String path) throws IOException {
+        int length = path.length();
+        if (buffer.remaining() >= length) {
+            int start = buffer.position();
+            int i = 0;
+            char c;
+            while (i < length && (c = path.charAt(i)) < 0x80) {
+                buffer.put((byte) c);
+                i++;
+            }
+            if (i == length) {
+                return;
+            }
+            buffer.position(start);
+        }
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, 2 * chars.capacity()));
+        }
+        chars.clear();
+        path.getChars(0, length, chars.array(), 0);
+        chars.limit(length);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            drain();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /*
+     * Hands everything written so far to the channel.
+     */
+    void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
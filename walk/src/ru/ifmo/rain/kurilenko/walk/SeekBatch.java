@@ -0,0 +1,95 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/*
+ * Reads a batch of listed files one after another in the order they are likely to be laid
+ * out on disk, completing the future of each file as it is read. Files are ordered by inode
+ * number where the file system reports one (file systems like ext4 allocate inodes and data
+ * of a directory together), otherwise grouped by directory and sorted by name. Files that
+ * can't be stat'ed go last, they fail without touching their data.
+ */
+class SeekBatch implements Runnable {
+    private static final Comparator<Item> ORDER = Comparator
+            .comparingInt((Item item) -> item.size < 0 ? 1 : 0)
+            .thenComparingLong(item -> item.inode)
+            .thenComparing(item -> item.directory)
+            .thenComparing(item -> item.name);
+
+    private final List<Item> items = new ArrayList<>();
+    private final Function<Item, HashResult> hash;
+    private final BooleanSupplier closed;
+
+    SeekBatch(Function<Item, HashResult> hash, BooleanSupplier closed) {
+        this.hash = hash;
+        this.closed = closed;
+    }
+
+    void add(String name, Path path, CompletableFuture<HashResult> future) {
+        items.add(new Item(name, path, future));
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    @Override
+    public void run() {
+        for (Item item : items) {
+            item.locate();
+        }
+        items.sort(ORDER);
+        for (Item item : items) {
+            if (closed.getAsBoolean()) {
+                return;
+            }
+            try {
+                item.future.complete(hash.apply(item));
+            } catch (RuntimeException e) {
+                item.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    static class Item {
+        final String name;
+        final Path path;
+        private final CompletableFuture<HashResult> future;
+        private long inode = 0;
+        private long size = -1;
+        private String directory = "";
+
+        Item(String name, Path path, CompletableFuture<HashResult> future) {
+            this.name = name;
+            this.path = path;
+            this.future = future;
+        }
+
+        private void locate() {
+            Path parent = path.toAbsolutePath().getParent();
+            directory = parent == null ? "" : parent.toString();
+            try {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path, "unix:size,ino");
+                    size = (Long) attrs.get("size");
+                    inode = (Long) attrs.get("ino");
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    // no inode numbers here, group by directory only
+                    size = Files.readAttributes(path, BasicFileAttributes.class).size();
+                }
+            } catch (IOException | SecurityException e) {
+                size = -1;
+            }
+        }
+    }
+}
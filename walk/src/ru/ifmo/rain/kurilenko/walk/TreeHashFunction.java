@@ -0,0 +1,203 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Splits the data into leaves of a fixed size (the last one may be shorter, an empty input
+ * is one empty leaf) and hashes each leaf with the base function. Then, level by level,
+ * adjacent digests are concatenated and hashed again, an odd one out is carried up as is,
+ * until one digest is left. Data of at most one leaf therefore hashes the same as with the
+ * base function.
+ *
+ * newHasher() computes this sequentially. FileHasher uses hashMapped() instead, which hashes
+ * the leaves of a file as ForkJoin tasks over regions mapped MAP_WINDOW bytes at a time.
+ */
+class TreeHashFunction implements HashFunction {
+    static final int MIN_LEAF = 1 << 10;
+    private static final long MAP_WINDOW = 1 << 26;
+
+    private final HashFunction base;
+    private final int leaf;
+    private final ThreadLocal<Hasher> hashers;
+
+    TreeHashFunction(HashFunction base, int leaf) {
+        if (leaf < MIN_LEAF) {
+            throw new IllegalArgumentException("leaf size should be at least " + MIN_LEAF);
+        }
+        this.base = base;
+        this.leaf = leaf;
+        hashers = ThreadLocal.withInitial(base::newHasher);
+    }
+
+    int leaf() {
+        return leaf;
+    }
+
+    @Override
+    public String name() {
+        return base.name() + "/tree" + leaf;
+    }
+
+    @Override
+    public int length() {
+        return base.length();
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new TreeHasher();
+    }
+
+    class TreeHasher implements Hasher {
+        private final Hasher current = base.newHasher();
+        private byte[] leaves = new byte[16 * length()];
+        private int count = 0;
+        private int filled = 0;
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), leaf - filled);
+                buffer.limit(buffer.position() + n);
+                current.update(buffer);
+                buffer.limit(limit);
+                filled += n;
+                if (filled == leaf) {
+                    finishLeaf();
+                }
+            }
+        }
+
+        private void finishLeaf() {
+            if ((count + 1) * length() > leaves.length) {
+                leaves = Arrays.copyOf(leaves, leaves.length * 2);
+            }
+            byte[] digest = new byte[length()];
+            current.digest(digest);
+            System.arraycopy(digest, 0, leaves, count * length(), length());
+            count++;
+            current.reset();
+            filled = 0;
+        }
+
+        @Override
+        public void digest(byte[] digest) {
+            if (filled > 0 || count == 0) {
+                finishLeaf();
+            }
+            System.arraycopy(combine(leaves, count), 0, digest, 0, length());
+        }
+
+        @Override
+        public void reset() {
+            current.reset();
+            count = 0;
+            filled = 0;
+        }
+
+        TreeHashFunction function() {
+            return TreeHashFunction.this;
+        }
+    }
+
+    /*
+     * Called from a ForkJoin worker the leaves are forked into that worker's pool, from any
+     * other thread into the common pool.
+     */
+    void hashMapped(FileChannel channel, long size, byte[] digest) throws IOException {
+        long count = Math.max(1, (size + leaf - 1) / leaf);
+        if (count * length() > Integer.MAX_VALUE - 8) {
+            throw new IOException("file has too many leaves of " + leaf + " bytes");
+        }
+        long window = Math.max(1, MAP_WINDOW / leaf) * leaf;
+        byte[] leaves = new byte[(int) count * length()];
+        Leaves task = new Leaves(channel, size, window, leaves, 0, (size + window - 1) / window);
+        task.invoke();
+        if (task.error != null) {
+            throw task.error;
+        }
+        System.arraycopy(combine(leaves, (int) count), 0, digest, 0, length());
+    }
+
+    private byte[] combine(byte[] nodes, int count) {
+        int length = length();
+        Hasher hasher = hashers.get();
+        byte[] digest = new byte[length];
+        while (count > 1) {
+            int next = 0;
+            for (int i = 0; i + 1 < count; i += 2, next++) {
+                hasher.reset();
+                hasher.update(ByteBuffer.wrap(nodes, i * length, 2 * length));
+                hasher.digest(digest);
+                System.arraycopy(digest, 0, nodes, next * length, length);
+            }
+            if (count % 2 == 1) {
+                System.arraycopy(nodes, (count - 1) * length, nodes, next * length, length);
+                next++;
+            }
+            count = next;
+        }
+        return Arrays.copyOf(nodes, length);
+    }
+
+    /*
+     * Hashes the leaves of windows [from, to), splitting the range until a task has a single
+     * window to map.
+     */
+    @SuppressWarnings("serial")
+    private class Leaves extends RecursiveAction {
+        private final FileChannel channel;
+        private final long size;
+        private final long window;
+        private final byte[] leaves;
+        private final long from;
+        private final long to;
+        private IOException error;
+
+        Leaves(FileChannel channel, long size, long window, byte[] leaves, long from, long to) {
+            this.channel = channel;
+            this.size = size;
+            this.window = window;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                long mid = (from + to) >>> 1;
+                Leaves left = new Leaves(channel, size, window, leaves, from, mid);
+                Leaves right = new Leaves(channel, size, window, leaves, mid, to);
+                ForkJoinTask.invokeAll(left, right);
+                error = left.error != null ? left.error : right.error;
+                return;
+            }
+            long start = from * window;
+            MappedByteBuffer region;
+            try {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(window, size - start));
+            } catch (IOException e) {
+                error = e;
+                return;
+            }
+            Hasher hasher = hashers.get();
+            byte[] digest = new byte[length()];
+            int index = (int) (start / leaf);
+            while (region.position() < region.capacity()) {
+                region.limit(Math.min(region.capacity(), region.position() + leaf));
+                hasher.reset();
+                hasher.update(region);
+                hasher.digest(digest);
+                System.arraycopy(digest, 0, leaves, index++ * length(), length());
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.stream.Stream;
+
+/*
+ * Checks files against a manifest written by Walk: lines "hash[/leaf] path", each possibly
+ * followed by tab-indented chunk lines, which are skipped. Listed paths are fed to a Walker,
+ * which hashes them in parallel and returns them in manifest order, so the expected hashes
+ * wait in a queue no longer than the walker's window. Only problems are written to the
+ * report: "changed hash path" with the current hash, "missing path" and "failed path".
+ * Entries of archives, which a manifest written with --archives lists, can't be looked up
+ * on their own and are reported as "unsupported path". Without --hash the function is told
+ * from the manifest itself, see function.
+ */
+class Verify {
+    private static final int PROBES = 16;
+
+    private final Walker walker;
+    private final String suffix;
+    private long files = 0;
+    private long changed = 0;
+    private long missing = 0;
+    private long failed = 0;
+    private long unsupported = 0;
+
+    Verify(Walker walker, String suffix) {
+        this.walker = walker;
+        this.suffix = suffix;
+    }
+
+    /*
+     * Returns the suffix of the first hash in the manifest, empty if it has none.
+     */
+    static String suffix(Path manifest) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(manifest)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int space = line.indexOf(' ');
+                if (!line.startsWith("\t") && space >= 0) {
+                    int slash = line.lastIndexOf('/', space);
+                    return slash < 0 ? "" : line.substring(slash, space);
+                }
+            }
+        }
+        return "";
+    }
+
+    /*
+     * Returns the built-in function the manifest was written with, told by the width of its
+     * first hash, or null if no built-in function is that wide. Where several are, the first
+     * of the first PROBES listed files that one of them still hashes to the recorded value
+     * decides; if none does, they would all report the same, and the first one is returned.
+     * Hashes of a manifest with a leaf size are compared as tree hashes with that leaf.
+     */
+    static HashFunction function(Path manifest, int leaf) throws IOException {
+        List<HashFunction> candidates = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(manifest)) {
+            int probes = 0;
+            for (String line = in.readLine(); line != null && probes < PROBES; line = in.readLine()) {
+                int space = line.indexOf(' ');
+                if (line.startsWith("\t") || space < 0) {
+                    continue;
+                }
+                int slash = line.lastIndexOf('/', space);
+                String expected = line.substring(0, slash < 0 ? space : slash);
+                if (candidates.isEmpty()) {
+                    for (HashFunction function : HashFunctions.builtIn()) {
+                        if (2 * function.length() == expected.length()) {
+                            candidates.add(function);
+                        }
+                    }
+                    if (candidates.size() < 2) {
+                        return candidates.isEmpty() ? null : candidates.get(0);
+                    }
+                }
+                probes++;
+                for (HashFunction function : candidates) {
+                    HashFunction tree = leaf > 0 ? HashFunctions.tree(function, leaf) : function;
+                    byte[] digest = new byte[tree.length()];
+                    try {
+                        FileHasher.hash(Paths.get(line.substring(space + 1)), tree.newHasher(), digest);
+                    } catch (IOException | SecurityException | InvalidPathException e) {
+                        break;
+                    }
+                    if (expected.equals(HashResult.hex(digest))) {
+                        return function;
+                    }
+                }
+            }
+        }
+        return candidates.isEmpty() ? HashFunctions.FNV32 : candidates.get(0);
+    }
+
+    void run(BufferedReader manifest, Writer report) throws IOException {
+        Entries entries = new Entries(manifest.lines().iterator());
+        try (Stream<HashResult> results = walker.walkNames(entries)) {
+            Iterator<HashResult> it = results.iterator();
+            while (it.hasNext()) {
+                HashResult result = it.next();
+                String expected = entries.expected.remove();
+                files++;
+                Exception e = result.getError();
+                if ((e instanceof NoSuchFileException || e instanceof InvalidPathException)
+                        && ArchiveTask.isEntryName(result.getPath())) {
+                    unsupported++;
+                    report.write("unsupported " + result.getPath() + System.lineSeparator());
+                } else if (e instanceof NoSuchFileException || e instanceof InvalidPathException) {
+                    missing++;
+                    report.write("missing " + result.getPath() + System.lineSeparator());
+                } else if (e != null) {
+                    failed++;
+                    Walk.report(result);
+                    report.write("failed " + result.getPath() + System.lineSeparator());
+                } else if (!expected.equals(result.getHex() + suffix)) {
+                    changed++;
+                    report.write("changed " + result.getHex() + suffix + " " + result.getPath() + System.lineSeparator());
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Verified " + files + " files: " + changed + " changed, " + missing + " missing, " + failed + " failed"
+                + (unsupported > 0 ? ", " + unsupported + " archive entries unsupported" : "");
+    }
+
+    /*
+     * Paths of the manifest entries; the hash of every path handed out is queued.
+     */
+    private static class Entries implements Iterator<String> {
+        private final Iterator<String> lines;
+        private final Queue<String> expected = new ArrayDeque<>();
+        private String next;
+
+        Entries(Iterator<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && lines.hasNext()) {
+                String line = lines.next();
+                int space = line.indexOf(' ');
+                if (line.startsWith("\t") || line.isEmpty()) {
+                    continue;
+                }
+                if (space < 0) {
+                    System.err.println("Error: malformed manifest line " + line);
+                    continue;
+                }
+                expected.add(line.substring(0, space));
+                next = line.substring(space + 1);
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = null;
+            return result;
+        }
+    }
+}
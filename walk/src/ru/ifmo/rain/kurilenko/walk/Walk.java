@@ -1,60 +1,506 @@
 package ru.ifmo.rain.kurilenko.walk;
 
+import javax.management.JMException;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class Walk {
+    static final int ASYNC_DEPTH = 64;
+    private static final int TREE_LEAF = 1 << 20;
+    private static final int SEEK_WINDOW = 1024;
+    private static final int PROGRESS_INTERVAL = 5;
+    private static final int CHUNK_AVERAGE = 1 << 20;
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
 
     public static void main(String[] args) {
+        run(args, false);
+    }
+
+    static void run(String[] args, boolean recursive) {
+        String usage = "Usage: " + (recursive ? "RecursiveWalk" : "Walk") + " [--cache=file] [--hash=fnv32|fnv64|xxh64|sha1|sha256] [--async[=depth]] [--tree[=leaf]] [--chunks[=average]] [--archives[=depth]] [--dedup] [--seek-order[=window]] [--progress[=seconds]] [--journal=file] input output [threads]\n"
+                + "       " + (recursive ? "RecursiveWalk" : "Walk") + " --verify [--trust-metadata --cache=file] [--hash=...] [--async[=depth]] [--seek-order[=window]] [--progress[=seconds]] manifest report [threads]\n"
+                + "       " + (recursive ? "RecursiveWalk" : "Walk") + " --workers=n|--connect=port,... [options] input output [threads]\n"
+                + "       " + (recursive ? "RecursiveWalk" : "Walk") + " --worker[=port] [options] [threads]\n"
+                + "Options go before the first file name; \"--\" ends them explicitly.";
         if (args == null) {
             System.err.println("Error: args is null");
-        } else if (args.length != 2) {
+            return;
+        }
+        WalkOptions options;
+        try {
+            options = WalkOptions.parse(args, "cache", "hash", "async", "tree", "chunks", "archives", "dedup", "seek-order", "progress", "journal", "verify", "trust-metadata", "workers", "connect", "worker");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.out.println(usage);
+            return;
+        }
+        List<String> files = options.positional();
+        int names = options.has("worker") ? 0 : 2;
+        if (files.size() != names && files.size() != names + 1) {
             System.err.println("Error: wrong number of arguments");
-        } else if (args[0] == null) {
+            System.out.println(usage);
+        } else if (names > 0 && files.get(0) == null) {
             System.err.println ("Error: input file is null");
-        } else if (args[1] == null) {
+        } else if (names > 0 && files.get(1) == null) {
             System.err.println ("Error: output file is null");
-        } else try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]))) {
-            try (BufferedWriter w = Files.newBufferedWriter(Paths.get(args[1]))) {
-                String path, hash;
-                while ((path = in.readLine()) != null) {
-                    hash = "00000000";
-                    try (InputStream r = Files.newInputStream(Paths.get(path))) {
-                        int x = 0x811c9dc5, p = 0x01000193, i;
-                        byte[] buf = new byte[1024];
-                        while ((i = r.read(buf)) >= 0) {
-                            for (int tmp = 0; tmp < i; tmp++) x = (x * p) ^ (buf[tmp] & 0xff);
+        } else {
+            boolean verify = options.has("verify");
+            int threads = recursive || verify || options.has("tree") ? Runtime.getRuntime().availableProcessors() : 1;
+            if (files.size() == names + 1) {
+                try {
+                    threads = Integer.parseInt(files.get(names));
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: can't parse number of threads: " + e.getMessage());
+                    return;
+                }
+                if (threads < 1) {
+                    System.err.println("Error: number of threads should be positive");
+                    return;
+                }
+            }
+            HashFunction function = HashFunctions.FNV32;
+            if (options.has("hash")) {
+                try {
+                    function = HashFunctions.forName(options.get("hash"));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+            }
+            if (verify && (options.has("tree") || options.has("chunks") || options.has("journal") || options.has("archives"))) {
+                System.err.println("Error: --verify can't be combined with --tree, --chunks, --journal or --archives");
+                return;
+            }
+            boolean sharded = options.has("workers") || options.has("connect");
+            if (sharded && (options.has("cache") || options.has("journal") || verify || options.has("worker"))) {
+                System.err.println("Error: --workers and --connect can't be combined with --cache, --journal, --verify or --worker");
+                return;
+            }
+            if (options.has("worker") && (options.has("cache") || options.has("journal") || verify)) {
+                System.err.println("Error: --worker can't be combined with --cache, --journal or --verify");
+                return;
+            }
+            if (options.has("trust-metadata") && !(verify && options.has("cache"))) {
+                System.err.println("Error: --trust-metadata needs --verify and --cache");
+                return;
+            }
+            String suffix = "";
+            if (verify) {
+                try {
+                    suffix = Verify.suffix(Paths.get(files.get(0)));
+                    int leaf = suffix.isEmpty() ? 0 : Integer.parseInt(suffix.substring(1));
+                    if (!options.has("hash")) {
+                        function = Verify.function(Paths.get(files.get(0)), leaf);
+                        if (function == null) {
+                            System.err.println("Error: can't tell the hash function of manifest " + files.get(0) + ", give it with --hash");
+                            return;
                         }
-                        hash = String.format("%08x", x);
-                    } catch (InvalidPathException e) {
-                        System.err.println("Error: path " + path + " not found");
-                    } catch (IOException e) {
-                        System.err.println("Error: I/O exception in file " + path);
-                    } catch (SecurityException e) {
-                        System.err.println("Error: security violation in file " + path);
                     }
-                    try {
-                        w.write(hash + " " + path + System.lineSeparator());
-                    } catch (IOException e) {
-                        System.err.println("Error: output error");
+                    if (!suffix.isEmpty()) {
+                        function = HashFunctions.tree(function, leaf);
                     }
+                } catch (InvalidPathException e) {
+                    System.err.println("Error: manifest path " + files.get(0) + " is invalid");
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Error: can't read manifest " + files.get(0) + ": " + e.getMessage());
+                    return;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: bad leaf size in manifest: " + suffix);
+                    return;
+                }
+            }
+            if (options.has("tree")) {
+                try {
+                    int leaf = options.get("tree").isEmpty() ? TREE_LEAF : options.getInt("tree", TREE_LEAF);
+                    function = HashFunctions.tree(function, leaf);
+                    suffix = "/" + leaf;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+            }
+            if (options.has("chunks")) {
+                if (options.has("tree") || options.has("cache")) {
+                    System.err.println("Error: --chunks can't be combined with --tree or --cache");
+                    return;
+                }
+                try {
+                    int average = options.get("chunks").isEmpty() ? CHUNK_AVERAGE : options.getInt("chunks", CHUNK_AVERAGE);
+                    function = HashFunctions.chunked(function, average);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+            }
+            int asyncDepth = 0;
+            if (options.has("async")) {
+                try {
+                    asyncDepth = options.get("async").isEmpty() ? ASYNC_DEPTH : options.getInt("async", ASYNC_DEPTH);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                if (asyncDepth < 1) {
+                    System.err.println("Error: queue depth should be positive");
+                    return;
+                }
+            }
+            int archiveDepth = 0;
+            if (options.has("archives")) {
+                try {
+                    archiveDepth = options.get("archives").isEmpty() ? 1 : options.getInt("archives", 1);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                if (archiveDepth < 1) {
+                    System.err.println("Error: archive depth should be positive");
+                    return;
+                }
+            }
+            int seekWindow = 0;
+            if (options.has("seek-order")) {
+                try {
+                    seekWindow = options.get("seek-order").isEmpty() ? SEEK_WINDOW : options.getInt("seek-order", SEEK_WINDOW);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
                 }
+                if (seekWindow < 1) {
+                    System.err.println("Error: seek window should be positive");
+                    return;
+                }
+            }
+            int progressInterval = seekWindow > 0 ? PROGRESS_INTERVAL : 0;
+            if (options.has("progress")) {
+                try {
+                    progressInterval = options.get("progress").isEmpty() ? PROGRESS_INTERVAL : options.getInt("progress", PROGRESS_INTERVAL);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                if (progressInterval < 1) {
+                    System.err.println("Error: progress interval should be positive");
+                    return;
+                }
+            }
+            if (sharded) {
+                List<Callable<Coordinator.Link>> workers;
+                try {
+                    workers = workers(args, recursive, options, files.size() == 3 ? files.get(2) : null);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                coordinate(workers, files.get(0), files.get(1), HashResult.hex(new byte[function.length()]) + suffix);
+                return;
+            }
+            int port = 0;
+            if (options.has("worker")) {
+                try {
+                    port = options.get("worker").isEmpty() ? 0 : options.getInt("worker", 0);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                if (!options.get("worker").isEmpty() && (port < 1 || port > 0xffff)) {
+                    System.err.println("Error: port should be from 1 to 65535");
+                    return;
+                }
+            }
+            HashCache cache = null;
+            if (options.has("cache")) {
+                try {
+                    cache = HashCache.load(Paths.get(options.get("cache")), function).trusted(!verify || options.has("trust-metadata"));
+                } catch (InvalidPathException e) {
+                    System.err.println("Error: cache path " + options.get("cache") + " is invalid");
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Error: can't load cache " + options.get("cache") + ": " + e.getMessage());
+                    return;
+                }
+            }
+            try (WalkMetrics metrics = new WalkMetrics();
+                 Walker walker = new Walker(function, threads).recursive(recursive && !verify).cache(cache).async(asyncDepth)
+                         .archives(archiveDepth).dedup(options.has("dedup")).seekOrder(seekWindow).metrics(metrics)) {
+                try {
+                    metrics.register();
+                } catch (JMException e) {
+                    System.err.println("Error: can't register metrics: " + e.getMessage());
+                }
+                if (progressInterval > 0) {
+                    metrics.report(progressInterval, TimeUnit.SECONDS);
+                }
+                if (options.has("worker")) {
+                    serve(walker, port, suffix);
+                } else if (verify) {
+                    verify(walker, files.get(0), files.get(1), suffix);
+                } else if (options.has("journal")) {
+                    walkJournaled(walker, files.get(0), files.get(1), options.get("journal"), suffix);
+                } else {
+                    walk(walker, files.get(0), files.get(1), suffix);
+                }
+            }
+            if (cache != null) {
+                try {
+                    cache.save();
+                } catch (IOException e) {
+                    System.err.println("Error: can't save cache " + options.get("cache") + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * The suffix follows every hash in the output; for a tree hash it records the leaf size.
+     */
+    private static void walk(Walker walker, String input, String output, String suffix) {
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(input))) {
+            try (ResultWriter w = new ResultWriter(FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), suffix);
+                 Stream<HashResult> results = walker.walkNames(in.lines().iterator())) {
+                results.forEach(result -> {
+                    report(result);
+                    write(w, result);
+                });
             } catch (InvalidPathException e) {
-                System.err.println("Error: output path " + args[1] + " is invalid");
+                System.err.println("Error: output path " + output + " is invalid");
             } catch (IOException e) {
-                System.err.println("Error: I/O exception in output file"  + args[1]);
+                System.err.println("Error: I/O exception in output file"  + output);
             } catch (SecurityException e) {
-                System.err.println("Error: security violation on output file " + args[1]);
+                System.err.println("Error: security violation on output file " + output);
             }
         } catch (InvalidPathException e) {
-            System.err.println("Error: input path " + args[0] + " is invalid");
+            System.err.println("Error: input path " + input + " is invalid");
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error: I/O exception in input file"  + input);
+        } catch (SecurityException e) {
+            System.err.println("Error: security violation on input file " + input);
+        }
+    }
+
+    /*
+     * Like walk, but every CHECKPOINT_INTERVAL the output is flushed to disk and the journal
+     * records how much of the input is fully written. A later run with the same journal
+     * continues from there, truncating output written after the last checkpoint. It refuses
+     * to if the output is shorter than the checkpoint, as it is not the one the journal is for.
+     */
+    private static void walkJournaled(Walker walker, String input, String output, String journalName, String suffix) {
+        try (Journal journal = Journal.open(Paths.get(journalName));
+             FileChannel in = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (journal.isResumed() && out.size() < journal.output()) {
+                System.err.println("Error: output " + output + " is shorter than recorded in journal " + journalName);
+                return;
+            }
+            in.position(journal.input());
+            out.truncate(journal.output());
+            out.position(journal.output());
+            LineReader lines = new LineReader(Channels.newInputStream(in), journal.input());
+            ResultWriter w = new ResultWriter(out, suffix);
+            long done = 0;
+            long written = journal.input();
+            long last = System.nanoTime();
+            try (Stream<HashResult> results = walker.walkNames(lines)) {
+                Iterator<HashResult> it = results.iterator();
+                while (it.hasNext()) {
+                    HashResult result = it.next();
+                    if (result.index > done) {
+                        written = lines.release(result.index - done);
+                        done = result.index;
+                        if (System.nanoTime() - last >= CHECKPOINT_INTERVAL) {
+                            w.flush();
+                            out.force(false);
+                            journal.checkpoint(written, out.position());
+                            last = System.nanoTime();
+                        }
+                    }
+                    report(result);
+                    write(w, result);
+                }
+            }
+            w.flush();
+            journal.finish();
+        } catch (InvalidPathException e) {
+            System.err.println("Error: path " + e.getInput() + " is invalid");
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error: I/O exception while walking " + input + ": " + e.getMessage());
+        } catch (SecurityException e) {
+            System.err.println("Error: security violation while walking " + input);
+        }
+    }
+
+    /*
+     * Listed paths are only hashed, never walked into; a verified cache records the new hashes.
+     */
+    private static void verify(Walker walker, String manifest, String report, String suffix) {
+        Verify verify = new Verify(walker, suffix);
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(manifest));
+             BufferedWriter out = Files.newBufferedWriter(Paths.get(report))) {
+            verify.run(in, out);
+        } catch (InvalidPathException e) {
+            System.err.println("Error: path " + e.getInput() + " is invalid");
+            return;
         } catch (IOException e) {
-            System.err.println("Error: I/O exception in input file"  + args[0]);
+            System.err.println("Error: I/O exception while verifying " + manifest + ": " + e.getMessage());
+            return;
         } catch (SecurityException e) {
-            System.err.println("Error: security violation on input file " + args[0]);
+            System.err.println("Error: security violation while verifying " + manifest);
+            return;
+        }
+        System.out.println(verify);
+    }
+
+    /*
+     * Started workers are this program with the options of this run, so they hash and write
+     * exactly as it would; the coordinator only moves lines.
+     */
+    private static List<Callable<Coordinator.Link>> workers(String[] args, boolean recursive, WalkOptions options, String threads) {
+        List<Callable<Coordinator.Link>> workers = new ArrayList<>();
+        if (options.has("connect")) {
+            for (String port : options.get("connect").split(",")) {
+                int number;
+                try {
+                    number = Integer.parseInt(port.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("can't parse --connect: " + e.getMessage());
+                }
+                workers.add(() -> Coordinator.Link.connect(number));
+            }
+            return workers;
+        }
+        int count = options.get("workers").isEmpty() ? Runtime.getRuntime().availableProcessors() : options.getInt("workers", 1);
+        if (count < 1) {
+            throw new IllegalArgumentException("number of workers should be positive");
+        }
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                (recursive ? RecursiveWalk.class : Walk.class).getName(), "--worker"));
+        for (String arg : args) {
+            if (arg == null || !arg.startsWith("--") || arg.equals("--")) {
+                break;
+            }
+            if (!arg.startsWith("--workers") && !arg.startsWith("--connect")) {
+                command.add(arg);
+            }
+        }
+        if (threads != null) {
+            command.add(threads);
+        }
+        for (int i = 0; i < count; i++) {
+            workers.add(() -> Coordinator.Link.start(command));
+        }
+        return workers;
+    }
+
+    private static void coordinate(List<Callable<Coordinator.Link>> workers, String input, String output, String failed) {
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(input));
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(output)), 1 << 16)) {
+            new Coordinator(in.lines().iterator(), workers, failed).run(out);
+        } catch (InvalidPathException e) {
+            System.err.println("Error: path " + e.getInput() + " is invalid");
+        } catch (IOException e) {
+            System.err.println("Error: I/O exception while walking " + input + ": " + e.getMessage());
+        } catch (SecurityException e) {
+            System.err.println("Error: security violation while walking " + input);
+        }
+    }
+
+    /*
+     * Worker side of Coordinator: standard input and output, or each connection to the
+     * loopback port in turn, carry shards until they are closed.
+     */
+    private static void serve(Walker walker, int port, String suffix) {
+        if (port == 0) {
+            try {
+                serve(walker, System.in, new FileOutputStream(FileDescriptor.out), suffix);
+            } catch (IOException e) {
+                System.err.println("Error: I/O exception in worker: " + e.getMessage());
+            }
+            return;
+        }
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    serve(walker, socket.getInputStream(), socket.getOutputStream(), suffix);
+                } catch (IOException e) {
+                    System.err.println("Error: I/O exception in worker connection: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: can't listen on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private static void serve(Walker walker, InputStream in, OutputStream out, String suffix) throws IOException {
+        BufferedReader shards = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        ResultWriter w = new ResultWriter(Channels.newChannel(out), suffix);
+        byte[] end = (Coordinator.END + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        for (String header = shards.readLine(); header != null; header = shards.readLine()) {
+            int count;
+            try {
+                count = Integer.parseInt(header);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad shard header " + header);
+            }
+            List<String> names = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = shards.readLine();
+                if (name == null) {
+                    throw new EOFException("shard ended after " + i + " of " + count + " names");
+                }
+                names.add(name);
+            }
+            try (Stream<HashResult> results = walker.walkNames(names.iterator())) {
+                results.forEach(result -> {
+                    report(result);
+                    write(w, result);
+                });
+            }
+            w.flush();
+            out.write(end);
+            out.flush();
+        }
+    }
+
+    static void report(HashResult result) {
+        Exception e = result.getError();
+        if (e instanceof InvalidPathException) {
+            System.err.println("Error: path " + result.getPath() + " not found");
+        } else if (e instanceof SecurityException) {
+            System.err.println("Error: security violation in file " + result.getPath());
+        } else if (e != null) {
+            System.err.println("Error: I/O exception in file " + result.getPath());
+        }
+    }
+
+    private static void write(ResultWriter w, HashResult result) {
+        try {
+            w.write(result.digest(), result.getPath());
+            List<Chunk> chunks = result.chunks();
+            for (int i = 0; i < chunks.size(); i++) {
+                w.writeChunk(chunks.get(i).getOffset(), chunks.get(i).getLength(), chunks.get(i).digest());
+            }
+        } catch (IOException e) {
+            System.err.println("Error: output error");
         }
     }
 }
@@ -0,0 +1,219 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.InvalidPathException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a walk, readable through JMX and optionally printed to standard error.
+ * <p>
+ * Hashing threads only add to striped counters and one histogram bucket per file, so
+ * recording costs two clock reads and a few uncontended increments. Latencies are kept in
+ * buckets of one eighth of a power of two, so percentiles are exact to within 12.5%.
+ */
+public class WalkMetrics implements WalkMetricsMBean, AutoCloseable {
+    private static final String NAME = "ru.ifmo.rain.kurilenko.walk:type=Walk";
+    private static final int SUB_BITS = 3;
+    private static final long SAMPLE = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder invalidPaths = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private final LongAdder securityErrors = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(64 << SUB_BITS);
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final long start = System.nanoTime();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "walk-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean reporting = false;
+    private volatile double current = 0;
+    private long sampledBytes = 0;
+    private ObjectName registered;
+
+    /**
+     * Creates empty metrics, sampling the current rate every second.
+     */
+    public WalkMetrics() {
+        timer.scheduleAtFixedRate(this::sample, SAMPLE, SAMPLE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as <tt>ru.ifmo.rain.kurilenko.walk:type=Walk</tt>.
+     *
+     * @throws JMException if the metrics of another walk are registered
+     */
+    public synchronized void register() throws JMException {
+        ObjectName name = new ObjectName(NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        registered = name;
+    }
+
+    /**
+     * Prints a line with the counters to standard error every <tt>interval</tt> and once more on close.
+     *
+     * @param interval time between lines
+     * @param unit     unit of the interval
+     */
+    public void report(long interval, TimeUnit unit) {
+        reporting = true;
+        timer.scheduleAtFixedRate(this::print, interval, interval, unit);
+    }
+
+    void record(long read, long nanos) {
+        bytes.add(read);
+        latencies.incrementAndGet(bucket(nanos));
+        long max = maxLatency.get();
+        while (nanos > max && !maxLatency.compareAndSet(max, nanos)) {
+            max = maxLatency.get();
+        }
+    }
+
+    void count(HashResult result) {
+        files.increment();
+        Exception e = result.getError();
+        if (e instanceof InvalidPathException) {
+            invalidPaths.increment();
+        } else if (e instanceof SecurityException) {
+            securityErrors.increment();
+        } else if (e != null) {
+            ioErrors.increment();
+        }
+    }
+
+    private void sample() {
+        long total = bytes.sum();
+        current = (total - sampledBytes) / (double) (1 << 20) / (SAMPLE / 1e9);
+        sampledBytes = total;
+    }
+
+    private void print() {
+        System.err.println(String.format("Progress: %d files, %.1f MB, %.1f MB/s (%.1f MB/s average), "
+                        + "errors: %d I/O, %d invalid path, %d security, latency p50 %.0f us, p99 %.0f us",
+                getFiles(), getBytes() / (double) (1 << 20), getCurrentMegabytesPerSecond(),
+                getAverageMegabytesPerSecond(), getIOErrors(), getInvalidPathErrors(), getSecurityErrors(),
+                getLatencyP50Micros(), getLatencyP99Micros()));
+    }
+
+    /*
+     * Values below 2^SUB_BITS get a bucket each; above that, every power of two is split
+     * into 2^SUB_BITS buckets by the bits following the leading one.
+     */
+    private static int bucket(long value) {
+        if (value < 1 << SUB_BITS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) | (int) ((value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1));
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < 1 << SUB_BITS) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        return (1L << exponent) | ((long) (bucket & ((1 << SUB_BITS) - 1)) << (exponent - SUB_BITS));
+    }
+
+    private double percentile(double p) {
+        long[] counts = new long[latencies.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies.get(i);
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(lowerBound(i + 1), maxLatency.get()) / 1e3;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getInvalidPathErrors() {
+        return invalidPaths.sum();
+    }
+
+    @Override
+    public long getIOErrors() {
+        return ioErrors.sum();
+    }
+
+    @Override
+    public long getSecurityErrors() {
+        return securityErrors.sum();
+    }
+
+    @Override
+    public double getCurrentMegabytesPerSecond() {
+        return current;
+    }
+
+    @Override
+    public double getAverageMegabytesPerSecond() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return seconds > 0 ? getBytes() / (double) (1 << 20) / seconds : 0;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getLatencyP90Micros() {
+        return percentile(0.9);
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return maxLatency.get() / 1e3;
+    }
+
+    /**
+     * Stops sampling, prints the last line if lines are reported and unregisters the MBean.
+     */
+    @Override
+    public synchronized void close() {
+        timer.shutdownNow();
+        if (reporting) {
+            print();
+        }
+        if (registered != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+            } catch (JMException ignored) {
+            }
+            registered = null;
+        }
+    }
+}
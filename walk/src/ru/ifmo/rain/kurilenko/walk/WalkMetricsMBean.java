@@ -0,0 +1,84 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+/**
+ * Management interface of {@link WalkMetrics}.
+ */
+public interface WalkMetricsMBean {
+    /**
+     * Returns the number of results produced, failed ones included.
+     *
+     * @return number of files
+     */
+    long getFiles();
+
+    /**
+     * Returns the number of bytes read and hashed. Files taken from a cache or repeated in the
+     * input are not read again and add nothing.
+     *
+     * @return number of bytes
+     */
+    long getBytes();
+
+    /**
+     * Returns the number of input paths that are not valid paths.
+     *
+     * @return number of invalid paths
+     */
+    long getInvalidPathErrors();
+
+    /**
+     * Returns the number of files that could not be read.
+     *
+     * @return number of I/O errors
+     */
+    long getIOErrors();
+
+    /**
+     * Returns the number of files the security manager denied access to.
+     *
+     * @return number of security errors
+     */
+    long getSecurityErrors();
+
+    /**
+     * Returns the read rate over the last full second.
+     *
+     * @return megabytes per second
+     */
+    double getCurrentMegabytesPerSecond();
+
+    /**
+     * Returns the read rate since the metrics were created.
+     *
+     * @return megabytes per second
+     */
+    double getAverageMegabytesPerSecond();
+
+    /**
+     * Returns the median time to hash one file.
+     *
+     * @return latency in microseconds
+     */
+    double getLatencyP50Micros();
+
+    /**
+     * Returns the 90th percentile of the time to hash one file.
+     *
+     * @return latency in microseconds
+     */
+    double getLatencyP90Micros();
+
+    /**
+     * Returns the 99th percentile of the time to hash one file.
+     *
+     * @return latency in microseconds
+     */
+    double getLatencyP99Micros();
+
+    /**
+     * Returns the longest time to hash one file.
+     *
+     * @return latency in microseconds
+     */
+    double getLatencyMaxMicros();
+}
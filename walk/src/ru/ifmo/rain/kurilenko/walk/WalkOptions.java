@@ -0,0 +1,68 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Command line of the form "--name[=value] ... positional ...". Options end at the first
+ * positional argument or at a "--" separator; everything after that is positional. A file
+ * name after the first may start with "--"; the first one needs the separator before it.
+ */
+class WalkOptions {
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> named = new HashMap<>();
+
+    private WalkOptions() {
+    }
+
+    static WalkOptions parse(String[] args, String... known) {
+        Set<String> names = new HashSet<>(Arrays.asList(known));
+        WalkOptions options = new WalkOptions();
+        boolean onlyPositional = false;
+        for (String arg : args) {
+            if (onlyPositional || arg == null || !arg.startsWith("--")) {
+                options.positional.add(arg);
+                onlyPositional = true;
+            } else if (arg.equals("--")) {
+                onlyPositional = true;
+            } else {
+                int eq = arg.indexOf('=');
+                String name = arg.substring(2, eq < 0 ? arg.length() : eq);
+                if (!names.contains(name)) {
+                    throw new IllegalArgumentException("unknown option --" + name);
+                }
+                options.named.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    List<String> positional() {
+        return positional;
+    }
+
+    boolean has(String name) {
+        return named.containsKey(name);
+    }
+
+    String get(String name) {
+        return named.get(name);
+    }
+
+    int getInt(String name, int def) {
+        String value = named.get(name);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse --" + name + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Hashes files lazily, producing one {@link HashResult} per file in the order the files were given.
+ * <p>
+ * Up to <tt>threads * 64</tt> files are hashed ahead of the consumer, so memory use does not depend
+ * on the number of files, unless the walker is told to {@link #dedup(boolean) hash repeated files
+ * once}, which remembers every distinct file until the walk ends. In recursive mode a directory is
+ * replaced by all files below it, in no particular order. With a {@link HashFunctions#tree tree
+ * hash} the leaves of one large file are hashed by all threads.
+ */
+public class Walker implements AutoCloseable {
+    private static final int WINDOW_PER_THREAD = 64;
+    private static final HashResult END = new HashResult(null, null, null);
+
+    private final HashFunction function;
+    private final int threads;
+    private final ThreadLocal<Hasher> hashers;
+    private boolean recursive = false;
+    private HashCache cache = null;
+    private int asyncDepth = 0;
+    private int archiveDepth = 0;
+    private boolean dedup = false;
+    private int seekWindow = 0;
+    private WalkMetrics metrics;
+    private ExecutorService pool;
+    private AsyncHasher async;
+
+    /**
+     * Creates a non-recursive walker without a cache.
+     *
+     * @param function hash function to use
+     * @param threads  number of hashing threads; with one thread files are hashed by the consumer
+     */
+    public Walker(HashFunction function, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Error: number of threads should be positive");
+        }
+        this.function = function;
+        this.threads = threads;
+        hashers = ThreadLocal.withInitial(function::newHasher);
+    }
+
+    /**
+     * Sets whether directories are replaced by the files below them.
+     *
+     * @param recursive whether to walk directories
+     * @return this walker
+     */
+    public Walker recursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    /**
+     * Sets the cache to take hashes of unchanged files from.
+     *
+     * @param cache cache, or <code>null</code> to hash every file
+     * @return this walker
+     */
+    public Walker cache(HashCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Makes the walker read files through {@link java.nio.channels.AsynchronousFileChannel},
+     * keeping up to <tt>depth</tt> files in flight at once, both listed ones and the ones
+     * found in directories. Hashing threads are still used to traverse directories.
+     *
+     * @param depth number of outstanding reads, or 0 to use blocking reads on the hashing threads
+     * @return this walker
+     */
+    public Walker async(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Error: queue depth should not be negative");
+        }
+        asyncDepth = depth;
+        return this;
+    }
+
+    /**
+     * Makes the walker replace zip and jar archives by the files inside them, named
+     * <tt>archive!/entry</tt>. Entries are read straight from the archive, nothing is extracted.
+     *
+     * @param depth levels of archives to look into: 1 for the entries of archives given or found
+     *              in directories, more to also look into archives inside them, 0 to hash archives
+     *              as plain files
+     * @return this walker
+     */
+    public Walker archives(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Error: archive depth should not be negative");
+        }
+        archiveDepth = depth;
+        return this;
+    }
+
+    /**
+     * Makes the walker hash each physical file once per walk. Files are identified by
+     * {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}, or by their real path where
+     * there are no file keys, so names through <tt>..</tt>, symbolic and hard links share one
+     * hash. Costs a stat per file and memory per distinct file until the walk ends.
+     *
+     * @param dedup whether to hash repeated files once
+     * @return this walker
+     */
+    public Walker dedup(boolean dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    /**
+     * Makes the walker read listed files in batches of <tt>window</tt> files, each batch sorted by
+     * inode number or directory so a rotational disk reads it with few seeks. Batches are read one
+     * at a time by a single thread; results still come in the order the files were given.
+     * Directories are traversed as usual.
+     *
+     * @param window number of files to sort at once, or 0 to read files in the order given
+     * @return this walker
+     */
+    public Walker seekOrder(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Error: seek window should not be negative");
+        }
+        seekWindow = window;
+        return this;
+    }
+
+    /**
+     * Sets the metrics to count files, bytes, errors and hashing times in.
+     *
+     * @param metrics metrics, or <code>null</code> to count nothing
+     * @return this walker
+     */
+    public Walker metrics(WalkMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /*
+     * New walker with the same settings and threads of its own, for a caller that needs to
+     * change them.
+     */
+    Walker copy() {
+        return new Walker(function, threads).recursive(recursive).cache(cache).async(asyncDepth)
+                .archives(archiveDepth).dedup(dedup).seekOrder(seekWindow).metrics(metrics);
+    }
+
+    HashFunction function() {
+        return function;
+    }
+
+    /*
+     * Directories, archives and tree hashes are split into ForkJoin tasks that fork into the
+     * pool of the thread running them, so then files are hashed on a ForkJoinPool even if
+     * there is one thread.
+     */
+    private synchronized ExecutorService pool() {
+        boolean forkJoin = recursive || archiveDepth > 0 || function instanceof TreeHashFunction;
+        if (pool == null && (forkJoin || threads > 1)) {
+            pool = forkJoin ? new ForkJoinPool(threads) : Executors.newFixedThreadPool(threads);
+        }
+        return pool;
+    }
+
+    private synchronized AsyncHasher async() {
+        if (async == null && asyncDepth > 0) {
+            async = new AsyncHasher(function, cache, metrics, asyncDepth);
+        }
+        return async;
+    }
+
+    /**
+     * Hashes the given files. The stream should be closed if it is not consumed to the end.
+     *
+     * @param paths files to hash
+     * @return lazily computed results
+     */
+    public Stream<HashResult> walk(Stream<Path> paths) {
+        Results<Path> results = new Results<>(paths.iterator(), Function.identity());
+        return results.stream().onClose(paths::close);
+    }
+
+    /**
+     * Hashes the given files. The stream should be closed if it is not consumed to the end.
+     *
+     * @param paths files to hash
+     * @return lazily computed results
+     */
+    public Stream<HashResult> walk(Iterable<Path> paths) {
+        return new Results<>(paths.iterator(), Function.identity()).stream();
+    }
+
+    Stream<HashResult> walkNames(Iterator<String> names) {
+        return new Results<>(names, Paths::get).stream();
+    }
+
+    /**
+     * Hashes a single file on the calling thread.
+     *
+     * @param path file to hash
+     * @return result for the file
+     */
+    public HashResult hash(Path path) {
+        return hash(path.toString(), path);
+    }
+
+    HashResult hash(String name, Path path) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        byte[] digest = new byte[function.length()];
+        long read = 0;
+        try {
+            if (cache != null) {
+                read = cache.hash(path, hashers.get(), digest);
+            } else {
+                read = FileHasher.hash(path, hashers.get(), digest);
+            }
+            return new HashResult(name, digest, null, ChunkingHashFunction.takeChunks(hashers.get()));
+        } catch (IOException | SecurityException e) {
+            return error(name, e);
+        } finally {
+            if (metrics != null) {
+                metrics.record(read, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /*
+     * With a memo of the walk, the first caller to get to a file claims it and hashes it. The
+     * others get a result pointing to the claim, which the consumer resolves: pool threads
+     * never wait for each other.
+     */
+    HashResult hash(String name, Path path, Map<Object, CompletableFuture<HashResult>> seen) {
+        if (seen == null) {
+            return hash(name, path);
+        }
+        CompletableFuture<HashResult> mine = new CompletableFuture<>();
+        CompletableFuture<HashResult> first = claim(seen, path, mine);
+        if (first != null) {
+            return new HashResult(name, first);
+        }
+        try {
+            HashResult result = hash(name, path);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /*
+     * Reads the file through the async hasher, or hashes it on the calling thread if the
+     * walker has none. The memo is used as in hash; blocks while all reads are in flight.
+     */
+    CompletableFuture<HashResult> hashAsync(String name, Path path, Map<Object, CompletableFuture<HashResult>> seen)
+            throws InterruptedException {
+        AsyncHasher async = async();
+        if (async == null) {
+            return CompletableFuture.completedFuture(hash(name, path, seen));
+        }
+        if (seen == null) {
+            return async.hash(name, path);
+        }
+        CompletableFuture<HashResult> mine = new CompletableFuture<>();
+        CompletableFuture<HashResult> first = claim(seen, path, mine);
+        if (first != null) {
+            return CompletableFuture.completedFuture(new HashResult(name, first));
+        }
+        try {
+            CompletableFuture<HashResult> future = async.hash(name, path);
+            future.thenAccept(mine::complete);
+            return future;
+        } catch (InterruptedException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /*
+     * Returns the claim made for the file before, or null if the caller should hash the file
+     * and complete its future: either the file is claimed now or it can't be identified.
+     */
+    private static CompletableFuture<HashResult> claim(Map<Object, CompletableFuture<HashResult>> seen,
+                                                       Path path, CompletableFuture<HashResult> mine) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return seen.putIfAbsent(attrs.fileKey() != null ? attrs.fileKey() : path.toRealPath(), mine);
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    HashResult hash(String name, InputStream in) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        byte[] digest = new byte[function.length()];
+        long read = 0;
+        try {
+            read = FileHasher.hash(in, hashers.get(), digest);
+            return new HashResult(name, digest, null, ChunkingHashFunction.takeChunks(hashers.get()));
+        } catch (IOException e) {
+            return error(name, e);
+        } finally {
+            if (metrics != null) {
+                metrics.record(read, System.nanoTime() - start);
+            }
+        }
+    }
+
+    boolean isArchive(Path path) {
+        return archiveDepth > 0 && path.getFileName() != null && ArchiveTask.isArchiveName(path.getFileName().toString());
+    }
+
+    RecursiveAction archiveTask(Path archive, Consumer<HashResult> sink) {
+        return new ArchiveTask(this, archive, archiveDepth, sink);
+    }
+
+    HashResult error(String name, Exception e) {
+        return new HashResult(name, new byte[function.length()], e);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (async != null) {
+            async.close();
+        }
+    }
+
+    /*
+     * Keeps a window of submitted hashes in input order. A directory stops the window from
+     * growing; once the entries before it are consumed it is traversed by DirectoryTask,
+     * whose results are handed over through a bounded queue.
+     */
+    private class Results<T> implements Iterator<HashResult> {
+        private final Iterator<T> source;
+        private final Function<T, Path> toPath;
+        private final ExecutorService pool = pool();
+        private final AsyncHasher async = async();
+        private final int windowSize = Math.max(Math.max(pool == null ? 1 : threads * WINDOW_PER_THREAD, asyncDepth * 2), seekWindow * 2);
+        private final ArrayDeque<Future<HashResult>> window = new ArrayDeque<>();
+        private final Map<Object, CompletableFuture<HashResult>> seen = dedup ? new ConcurrentHashMap<>() : null;
+        private BlockingQueue<HashResult> expanded;
+        private long expandedIndex;
+        private Path directory;
+        private SeekBatch batch;
+        private CompletableFuture<Void> reading = CompletableFuture.completedFuture(null);
+        private long pulled = 0;
+        private HashResult next;
+        private volatile boolean closed = false;
+
+        Results(Iterator<T> source, Function<T, Path> toPath) {
+            this.source = source;
+            this.toPath = toPath;
+        }
+
+        Stream<HashResult> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+                if (next != null && metrics != null) {
+                    metrics.count(next);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public HashResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HashResult result = next;
+            next = null;
+            return result;
+        }
+
+        private HashResult advance() {
+            while (!closed) {
+                if (expanded != null) {
+                    HashResult result = take(expanded);
+                    if (result != END) {
+                        result = resolve(result);
+                        if (result != null) {
+                            result.index = expandedIndex;
+                        }
+                        return result;
+                    }
+                    expanded = null;
+                }
+                fill();
+                if (!window.isEmpty()) {
+                    long index = pulled - window.size() - (directory != null ? 1 : 0);
+                    HashResult result = resolve(take(window.removeFirst()));
+                    if (result != null) {
+                        result.index = index;
+                    }
+                    return result;
+                }
+                if (directory == null) {
+                    return null;
+                }
+                traverse(directory);
+                directory = null;
+            }
+            return null;
+        }
+
+        private void fill() {
+            while (directory == null && window.size() < windowSize && source.hasNext()) {
+                T item = source.next();
+                pulled++;
+                String name = String.valueOf(item);
+                Path path;
+                try {
+                    path = toPath.apply(item);
+                } catch (InvalidPathException e) {
+                    window.addLast(CompletableFuture.completedFuture(error(name, e)));
+                    continue;
+                }
+                if (recursive && isDirectory(path) || isArchive(path)) {
+                    directory = path;
+                } else if (seekWindow > 0) {
+                    CompletableFuture<HashResult> future = new CompletableFuture<>();
+                    window.addLast(future);
+                    if (batch == null) {
+                        batch = new SeekBatch(file -> hash(file.name, file.path, seen), () -> closed);
+                    }
+                    batch.add(name, path, future);
+                    if (batch.size() == seekWindow) {
+                        read();
+                    }
+                } else if (async != null) {
+                    try {
+                        window.addLast(hashAsync(name, path, seen));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        close();
+                    }
+                } else if (pool == null) {
+                    window.addLast(CompletableFuture.completedFuture(hash(name, path, seen)));
+                } else {
+                    window.addLast(pool.submit(() -> hash(name, path, seen)));
+                }
+            }
+            if (batch != null && (directory != null || window.size() == batch.size() || !source.hasNext())) {
+                read();
+            }
+        }
+
+        /*
+         * A partial batch is only read when the consumer would otherwise wait for it. Batches
+         * are chained, so the disk serves one at a time.
+         */
+        private void read() {
+            SeekBatch next = batch;
+            batch = null;
+            if (pool == null) {
+                next.run();
+            } else {
+                reading = reading.thenRunAsync(next, pool);
+            }
+        }
+
+        private void traverse(Path dir) {
+            BlockingQueue<HashResult> queue = new ArrayBlockingQueue<>(windowSize);
+            expanded = queue;
+            expandedIndex = pulled - 1;
+            pool.execute(() -> {
+                try {
+                    Consumer<HashResult> sink = result -> put(queue, result);
+                    (isArchive(dir) ? archiveTask(dir, sink) : new DirectoryTask(Walker.this, dir, seen, sink)).invoke();
+                } finally {
+                    put(queue, END);
+                }
+            });
+        }
+
+        private void put(BlockingQueue<HashResult> queue, HashResult result) {
+            try {
+                while (!closed && !queue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                    // consumer is behind, wait for space
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private HashResult take(BlockingQueue<HashResult> queue) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return END;
+            }
+        }
+
+        private HashResult take(Future<HashResult> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return null;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error: hashing failed", e.getCause());
+            }
+        }
+
+        private HashResult resolve(HashResult result) {
+            if (result == null || result.same == null) {
+                return result;
+            }
+            HashResult first = take(result.same);
+            return first == null ? null : first.renamed(result.getPath());
+        }
+
+        private void close() {
+            closed = true;
+            for (Future<HashResult> future : window) {
+                future.cancel(true);
+            }
+            window.clear();
+        }
+    }
+
+    private static boolean isDirectory(Path path) {
+        try {
+            return Files.isDirectory(path);
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+}
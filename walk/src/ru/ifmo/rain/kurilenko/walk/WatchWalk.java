@@ -0,0 +1,351 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Hashes the listed files and directories once and then keeps the hashes current from
+ * WatchService events. Events are collected until QUIET passes without a new one (but at
+ * most for MAX_DELAY), so a file written in many small chunks is rehashed once. Listed
+ * directories are watched with all their subdirectories; for a listed file only its
+ * parent is watched and only events for the file itself are used. A file that is both
+ * listed and below a listed directory has both of its rows refreshed. Watched directories
+ * and listed files are matched by absolute path, but kept in the table under the names the
+ * input used for them.
+ *
+ * The dump is written like Walk output: a row per listed file and the files below each
+ * listed directory, in input order. A listed file or directory that is gone, whether at
+ * start or later, gets the zero hash.
+ */
+public class WatchWalk implements AutoCloseable {
+    private static final long QUIET = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(2);
+
+    private final Walker walker;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, Path> trees = new ConcurrentHashMap<>();
+    private final Map<Path, Path> files = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, String> hashes = new ConcurrentSkipListMap<>();
+    private final List<String> inputs = new ArrayList<>();
+    private final Set<String> directories = new HashSet<>();
+    private final String zero;
+
+    /**
+     * Creates a watch that hashes with the settings of the walker. The walker itself is not
+     * changed: the watch walks recursively with a copy of it.
+     *
+     * @param walker walker to copy the settings from
+     * @throws IOException if the watch service can't be created
+     */
+    public WatchWalk(Walker walker) throws IOException {
+        this.walker = walker.copy().recursive(true);
+        zero = HashResult.hex(new byte[walker.function().length()]);
+        watcher = Paths.get("").getFileSystem().newWatchService();
+    }
+
+    public static void main(String[] args) {
+        String usage = "Usage: WatchWalk [--cache=file] [--hash=fnv32|fnv64|xxh64|sha1|sha256] [--async[=depth]] input output [threads]\n"
+                + "Commands on standard input: dump, quit";
+        if (args == null) {
+            System.err.println("Error: args is null");
+            return;
+        }
+        WalkOptions options;
+        try {
+            options = WalkOptions.parse(args, "cache", "hash", "async");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.out.println(usage);
+            return;
+        }
+        List<String> files = options.positional();
+        if (files.size() < 2 || files.size() > 3 || files.get(0) == null || files.get(1) == null) {
+            System.out.println(usage);
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (files.size() == 3) {
+            try {
+                threads = Integer.parseInt(files.get(2));
+            } catch (NumberFormatException e) {
+                System.err.println("Error: can't parse number of threads: " + e.getMessage());
+                return;
+            }
+            if (threads < 1) {
+                System.err.println("Error: number of threads should be positive");
+                return;
+            }
+        }
+        HashFunction function = HashFunctions.FNV32;
+        if (options.has("hash")) {
+            try {
+                function = HashFunctions.forName(options.get("hash"));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                return;
+            }
+        }
+        int asyncDepth = 0;
+        if (options.has("async")) {
+            try {
+                asyncDepth = options.get("async").isEmpty() ? Walk.ASYNC_DEPTH : options.getInt("async", Walk.ASYNC_DEPTH);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                return;
+            }
+            if (asyncDepth < 1) {
+                System.err.println("Error: queue depth should be positive");
+                return;
+            }
+        }
+        Path output;
+        List<String> names;
+        try {
+            output = Paths.get(files.get(1));
+            names = Files.readAllLines(Paths.get(files.get(0)));
+        } catch (InvalidPathException e) {
+            System.err.println("Error: path " + e.getInput() + " is invalid");
+            return;
+        } catch (IOException e) {
+            System.err.println("Error: I/O exception in input file " + files.get(0));
+            return;
+        }
+        HashCache cache = null;
+        if (options.has("cache")) {
+            try {
+                cache = HashCache.load(Paths.get(options.get("cache")), function);
+            } catch (InvalidPathException e) {
+                System.err.println("Error: cache path " + options.get("cache") + " is invalid");
+                return;
+            } catch (IOException e) {
+                System.err.println("Error: can't load cache " + options.get("cache") + ": " + e.getMessage());
+                return;
+            }
+        }
+        try (Walker walker = new Walker(function, threads).cache(cache).async(asyncDepth);
+             WatchWalk watch = new WatchWalk(walker)) {
+            watch.start(names);
+            watch.dump(output);
+            Thread events = new Thread(watch::watch, "watch-walk");
+            events.setDaemon(true);
+            events.start();
+            BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String command;
+            while ((command = commands.readLine()) != null && !command.trim().equals("quit")) {
+                if (command.trim().equals("dump")) {
+                    watch.dump(output);
+                } else if (!command.trim().isEmpty()) {
+                    System.err.println("Error: unknown command " + command);
+                }
+            }
+            watch.dump(output);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println("Error: can't save cache " + options.get("cache") + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Registers the watches before hashing, so a change made while the initial hashes are
+     * computed is seen as an event instead of being lost.
+     */
+    public void start(List<String> names) {
+        List<String> valid = new ArrayList<>();
+        for (String name : names) {
+            try {
+                Path path = Paths.get(name);
+                name = path.toString();
+                if (Files.isDirectory(path)) {
+                    directories.add(name);
+                    registerTree(path);
+                } else {
+                    Path absolute = path.toAbsolutePath();
+                    files.put(absolute, path);
+                    if (absolute.getParent() != null && Files.isDirectory(absolute.getParent())) {
+                        register(absolute.getParent());
+                    }
+                }
+            } catch (InvalidPathException | IOException | SecurityException e) {
+                System.err.println("Error: can't watch " + name);
+            }
+            valid.add(name);
+            inputs.add(name);
+        }
+        try (Stream<HashResult> results = walker.walkNames(valid.iterator())) {
+            results.forEach(this::store);
+        }
+    }
+
+    public void dump(Path output) throws IOException {
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp)) {
+            for (String name : inputs) {
+                if (directories.contains(name) && Files.isDirectory(Paths.get(name))) {
+                    for (Map.Entry<String, String> e : below(Paths.get(name)).entrySet()) {
+                        w.write(e.getValue() + " " + e.getKey() + System.lineSeparator());
+                    }
+                } else {
+                    w.write(hashes.getOrDefault(name, zero) + " " + name + System.lineSeparator());
+                }
+            }
+        }
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(watcher.take(), changed);
+                long start = System.nanoTime();
+                WatchKey key;
+                while (System.nanoTime() - start < MAX_DELAY
+                        && (key = watcher.poll(QUIET, TimeUnit.NANOSECONDS)) != null) {
+                    collect(key, changed);
+                }
+                update(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            Path tree = trees.get(dir);
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                if (tree != null) {
+                    changed.add(tree);
+                }
+                for (Map.Entry<Path, Path> file : files.entrySet()) {
+                    if (dir.equals(file.getKey().getParent())) {
+                        changed.add(file.getValue());
+                    }
+                }
+            } else {
+                Path child = (Path) event.context();
+                if (tree != null) {
+                    Path path = tree.resolve(child);
+                    if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY
+                            || !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        changed.add(path);
+                    }
+                }
+                Path file = files.get(dir.resolve(child));
+                if (file != null) {
+                    changed.add(file);
+                }
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            trees.remove(dir);
+        }
+    }
+
+    private void update(Set<Path> changed) {
+        List<Path> rehash = new ArrayList<>();
+        for (Path path : changed) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                Path parent = path.toAbsolutePath().getParent();
+                if (trees.containsKey(path.toAbsolutePath()) || parent != null && trees.containsKey(parent)) {
+                    try {
+                        registerTree(path);
+                    } catch (IOException e) {
+                        System.err.println("Error: can't watch " + path);
+                    }
+                    removeBelow(path);
+                    rehash.add(path);
+                }
+            } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                rehash.add(path);
+            } else {
+                hashes.remove(path.toString());
+                removeBelow(path);
+            }
+        }
+        try (Stream<HashResult> results = walker.walk(rehash)) {
+            results.forEach(this::store);
+        }
+    }
+
+    private void removeBelow(Path dir) {
+        below(dir).clear();
+    }
+
+    private Map<String, String> below(Path dir) {
+        String prefix = dir.toString() + dir.getFileSystem().getSeparator();
+        return hashes.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private void store(HashResult result) {
+        Walk.report(result);
+        hashes.put(result.getPath(), result.getHex());
+    }
+
+    private void register(Path dir) throws IOException {
+        keys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir.toAbsolutePath());
+                trees.put(dir.toAbsolutePath(), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("Error: can't watch " + file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watcher.close();
+        } finally {
+            walker.close();
+        }
+    }
+}
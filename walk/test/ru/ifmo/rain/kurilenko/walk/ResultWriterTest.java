@@ -0,0 +1,99 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultWriterTest {
+    private static final int WARMUP = 200_000;
+    private static final int LINES = 1_000_000;
+    /*
+     * Allowance for one-off allocations by the runtime, such as a method being recompiled
+     * while the lines are written; a single byte per line would be a million.
+     */
+    private static final int SLACK = 1024;
+
+    @Test
+    public void test01_format() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ResultWriter w = new ResultWriter(Channels.newChannel(bytes), "/1024")) {
+            w.write(new byte[]{0x01, (byte) 0xab, 0x7f, (byte) 0xf0}, "dir/file.txt");
+            w.write(new byte[4], "\u0424\u0430\u0439\u043b \u6587\u4ef6");
+        }
+        String n = System.lineSeparator();
+        Assert.assertEquals("01ab7ff0/1024 dir/file.txt" + n + "00000000/1024 \u0424\u0430\u0439\u043b \u6587\u4ef6" + n,
+                new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test02_longLines() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 300_000; i++) {
+            path.append(i % 2 == 0 ? 'a' : '\u0436');
+        }
+        String n = System.lineSeparator();
+        StringBuilder expected = new StringBuilder();
+        try (ResultWriter w = new ResultWriter(Channels.newChannel(bytes), "")) {
+            for (int i = 0; i < 10; i++) {
+                w.write(new byte[]{(byte) i}, path.toString());
+                expected.append(String.format("%02x", i)).append(' ').append(path).append(n);
+            }
+        }
+        Assert.assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test03_noAllocationPerLine() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] hash = {0x12, 0x34, 0x56, 0x78};
+        String ascii = "some/directory/with/a/file.txt";
+        String unicode = "\u043a\u0430\u0442\u0430\u043b\u043e\u0433/\u0444\u0430\u0439\u043b.txt";
+        try (ResultWriter w = new ResultWriter(new NullChannel(), "")) {
+            for (int i = 0; i < WARMUP; i++) {
+                w.write(hash, i % 2 == 0 ? ascii : unicode);
+            }
+            long id = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < LINES; i++) {
+                w.write(hash, i % 2 == 0 ? ascii : unicode);
+            }
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            Assert.assertTrue("allocated " + allocated + " bytes for " + LINES + " lines", allocated <= SLACK);
+        }
+    }
+
+    private static class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
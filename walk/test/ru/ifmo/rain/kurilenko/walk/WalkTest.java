@@ -0,0 +1,239 @@
+package ru.ifmo.rain.kurilenko.walk;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WalkTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void test01_verifyRoundTrip() throws IOException {
+        List<String> names = files(3);
+        Path input = lines("input", names);
+        Path manifest = tmp.getRoot().toPath().resolve("manifest");
+        Path report = tmp.getRoot().toPath().resolve("report");
+        Walk.main(new String[]{input.toString(), manifest.toString()});
+
+        Walk.main(new String[]{"--verify", manifest.toString(), report.toString()});
+        Assert.assertEquals(Collections.emptyList(), Files.readAllLines(report));
+
+        Files.write(Paths.get(names.get(1)), "changed".getBytes(StandardCharsets.UTF_8));
+        Files.delete(Paths.get(names.get(2)));
+        Walk.main(new String[]{"--verify", manifest.toString(), report.toString()});
+        List<String> problems = Files.readAllLines(report);
+        Assert.assertEquals(problems.toString(), 2, problems.size());
+        Assert.assertTrue(problems.get(0), problems.get(0).startsWith("changed ") && problems.get(0).endsWith(" " + names.get(1)));
+        Assert.assertEquals("missing " + names.get(2), problems.get(1));
+    }
+
+    @Test
+    public void test02_verifyArchives() throws IOException {
+        Path zip = tmp.getRoot().toPath().resolve("x.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String entry : Arrays.asList("a", "b")) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(entry.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        List<String> names = new ArrayList<>(files(1));
+        names.add(zip.toString());
+        Path input = lines("input", names);
+        Path manifest = tmp.getRoot().toPath().resolve("manifest");
+        Path report = tmp.getRoot().toPath().resolve("report");
+        Walk.main(new String[]{"--archives", input.toString(), manifest.toString()});
+        Assert.assertEquals(3, Files.readAllLines(manifest).size());
+
+        Walk.main(new String[]{"--verify", "--archives", manifest.toString(), report.toString()});
+        Assert.assertFalse(Files.exists(report));
+
+        Walk.main(new String[]{"--verify", manifest.toString(), report.toString()});
+        Assert.assertEquals(Arrays.asList("unsupported " + zip + "!/a", "unsupported " + zip + "!/b"),
+                Files.readAllLines(report));
+    }
+
+    @Test
+    public void test03_journalRecovery() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("journal");
+        try (Journal journal = Journal.open(file)) {
+            Assert.assertFalse(journal.isResumed());
+            journal.checkpoint(10, 20);
+            journal.checkpoint(30, 40);
+        }
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            out.write(new byte[24 + 5]);
+        }
+        try (Journal journal = Journal.open(file)) {
+            Assert.assertTrue(journal.isResumed());
+            Assert.assertEquals(30, journal.input());
+            Assert.assertEquals(40, journal.output());
+            journal.finish();
+        }
+        Assert.assertFalse(Files.exists(file));
+    }
+
+    /*
+     * A run stopped after a checkpoint leaves the output written up to it and maybe some
+     * more; the resumed run drops the rest and continues from the checkpoint. Lines before
+     * the checkpoint are written with zero hashes here, so they show that they were kept.
+     */
+    @Test
+    public void test04_journalResume() throws IOException {
+        List<String> names = files(100);
+        Path input = lines("input", names);
+        Path expected = tmp.getRoot().toPath().resolve("expected");
+        Walk.main(new String[]{input.toString(), expected.toString(), "4"});
+        List<String> lines = Files.readAllLines(expected);
+        Assert.assertEquals(names.size(), lines.size());
+
+        int done = 40;
+        String n = System.lineSeparator();
+        StringBuilder written = new StringBuilder();
+        long read = 0;
+        for (int i = 0; i < done; i++) {
+            lines.set(i, "00000000 " + names.get(i));
+            written.append(lines.get(i)).append(n);
+            read += (names.get(i) + "\n").getBytes(StandardCharsets.UTF_8).length;
+        }
+        byte[] output = written.toString().getBytes(StandardCharsets.UTF_8);
+        Path resumed = tmp.getRoot().toPath().resolve("resumed");
+        Path journal = tmp.getRoot().toPath().resolve("journal");
+        Files.write(resumed, (written + "ffffffff torn").getBytes(StandardCharsets.UTF_8));
+        try (Journal j = Journal.open(journal)) {
+            j.checkpoint(read, output.length);
+        }
+
+        Walk.main(new String[]{"--journal=" + journal, input.toString(), resumed.toString(), "4"});
+        Assert.assertEquals(lines, Files.readAllLines(resumed));
+        Assert.assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void test05_parallelOrder() throws IOException {
+        List<String> names = files(2000);
+        Path input = lines("input", names);
+        Path sequential = tmp.getRoot().toPath().resolve("sequential");
+        Path parallel = tmp.getRoot().toPath().resolve("parallel");
+        Walk.main(new String[]{input.toString(), sequential.toString(), "1"});
+        Walk.main(new String[]{input.toString(), parallel.toString(), "8"});
+        List<String> lines = Files.readAllLines(sequential);
+        Assert.assertEquals(names.size(), lines.size());
+        for (int i = 0; i < names.size(); i++) {
+            Assert.assertTrue(lines.get(i), lines.get(i).endsWith(" " + names.get(i)));
+        }
+        Assert.assertEquals(lines, Files.readAllLines(parallel));
+    }
+
+    @Test
+    public void test06_dedup() throws IOException {
+        List<String> names = new ArrayList<>(files(3));
+        Path dir = tmp.getRoot().toPath();
+        names.add(dir.resolve("x").resolve("..").resolve("file0").toString());
+        names.add(names.get(1));
+        Files.createDirectory(dir.resolve("x"));
+        Path input = lines("input", names);
+        Path plain = dir.resolve("plain");
+        Path dedup = dir.resolve("dedup");
+        Walk.main(new String[]{input.toString(), plain.toString(), "4"});
+        Walk.main(new String[]{"--dedup", input.toString(), dedup.toString(), "4"});
+        List<String> lines = Files.readAllLines(plain);
+        Assert.assertEquals(lines, Files.readAllLines(dedup));
+        Assert.assertEquals(lines.get(0).split(" ")[0], lines.get(3).split(" ")[0]);
+        Assert.assertEquals(lines.get(1).split(" ")[0], lines.get(4).split(" ")[0]);
+    }
+
+    @Test
+    public void test07_asyncRecursive() throws IOException {
+        Path tree = tmp.newFolder("tree").toPath();
+        for (int i = 0; i < 300; i++) {
+            Path sub = Files.createDirectories(tree.resolve("d" + i % 7));
+            Files.write(sub.resolve("f" + i), ("content " + i % 50).getBytes(StandardCharsets.UTF_8));
+        }
+        Path input = lines("input", Collections.singletonList(tree.toString()));
+        Path blocking = tmp.getRoot().toPath().resolve("blocking");
+        Path async = tmp.getRoot().toPath().resolve("async");
+        Path dedup = tmp.getRoot().toPath().resolve("dedup");
+        RecursiveWalk.main(new String[]{input.toString(), blocking.toString(), "4"});
+        RecursiveWalk.main(new String[]{"--async=8", input.toString(), async.toString(), "4"});
+        RecursiveWalk.main(new String[]{"--async=8", "--dedup", input.toString(), dedup.toString(), "4"});
+        List<String> lines = Files.readAllLines(blocking);
+        Collections.sort(lines);
+        Assert.assertEquals(300, lines.size());
+        for (Path output : Arrays.asList(async, dedup)) {
+            List<String> other = Files.readAllLines(output);
+            Collections.sort(other);
+            Assert.assertEquals(lines, other);
+        }
+    }
+
+    @Test
+    public void test08_journalForeignOutput() throws IOException {
+        Path input = lines("input", files(10));
+        Path output = tmp.getRoot().toPath().resolve("output");
+        Path journal = tmp.getRoot().toPath().resolve("journal");
+        Files.write(output, "short".getBytes(StandardCharsets.UTF_8));
+        try (Journal j = Journal.open(journal)) {
+            j.checkpoint(10, 100);
+        }
+        Walk.main(new String[]{"--journal=" + journal, input.toString(), output.toString()});
+        Assert.assertEquals(Collections.singletonList("short"), Files.readAllLines(output));
+        Assert.assertTrue(Files.exists(journal));
+    }
+
+    /*
+     * fnv64 and xxh64 hashes are equally wide, so telling xxh64 takes hashing the files.
+     */
+    @Test
+    public void test09_verifyInfersHash() throws IOException {
+        Path input = lines("input", files(3));
+        Path manifest = tmp.getRoot().toPath().resolve("manifest");
+        Path report = tmp.getRoot().toPath().resolve("report");
+        for (List<String> options : Arrays.asList(
+                Arrays.asList("--hash=xxh64"), Arrays.asList("--hash=sha1"), Arrays.asList("--hash=xxh64", "--tree=1024"))) {
+            List<String> args = new ArrayList<>(options);
+            args.add(input.toString());
+            args.add(manifest.toString());
+            Walk.main(args.toArray(new String[0]));
+            Walk.main(new String[]{"--verify", manifest.toString(), report.toString()});
+            Assert.assertEquals(options.toString(), Collections.emptyList(), Files.readAllLines(report));
+        }
+    }
+
+    private List<String> files(int count) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = tmp.newFile("file" + i).toPath();
+            Files.write(file, ("content " + i).getBytes(StandardCharsets.UTF_8));
+            names.add(file.toString());
+        }
+        return names;
+    }
+
+    private Path lines(String name, List<String> lines) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return Files.write(tmp.getRoot().toPath().resolve(name), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}